@@ -0,0 +1,43 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the benchmarks with the JMH command line, adding the GC profiler (allocation rates) unless a profiler is given.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof") && !options.contains("-h") && !options.contains("-l")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Wires sling-lib OSGi components by hand (i.e. what Felix SCR would do), so they can be benchmarked outside a container.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class Components {
+
+    /**
+     * Set the <code>{@literal @}Reference</code> field <code>name</code> of <code>component</code>.
+     */
+    static <T> T bind(T component, String name, Object service) {
+        try {
+            final Field field = component.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(component, service);
+            return component;
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Can't bind " + name + " of " + component.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Call the <code>{@literal @}Activate</code> method of <code>component</code>, with <code>config</code> if it takes it.
+     */
+    static <T> T activate(T component, Map<String, Object> config) {
+        return invoke(component, "activate", config);
+    }
+
+    /**
+     * Call the <code>{@literal @}Deactivate</code> method of <code>component</code>.
+     */
+    static <T> T deactivate(T component) {
+        return invoke(component, "deactivate", null);
+    }
+
+    private static <T> T invoke(T component, String name, Map<String, Object> config) {
+        for (Method method : component.getClass().getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                try {
+                    method.setAccessible(true);
+                    if (method.getParameterCount() == 0) {
+                        method.invoke(component);
+                    } else {
+                        method.invoke(component, config);
+                    }
+                    return component;
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    throw new IllegalStateException("Can't " + name + " " + component.getClass().getName(), e);
+                }
+            }
+        }
+        throw new IllegalStateException(component.getClass().getName() + " has no " + name + " method");
+    }
+}
@@ -0,0 +1,88 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench;
+
+import static io.marto.aem.bench.tree.SyntheticTree.BASE_TYPE;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.marto.aem.bench.tree.BenchModel;
+import io.marto.aem.bench.tree.InMemoryResourceResolverFactory;
+import io.marto.aem.lib.TypedResourceResolverFactory;
+import io.marto.aem.lib.impl.SharedModelCacheImpl;
+import io.marto.aem.lib.impl.TypedResourceResolverFactoryImpl;
+
+/**
+ * {@link TypedResourceResolverFactory#execute(String, io.marto.aem.lib.RepositoryTask) execute} of a small task, with
+ * and without resolver pooling. Each login burns <code>loginTokens</code> of CPU.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean pool;
+
+    @Param("10000")
+    public long loginTokens;
+
+    private TypedResourceResolverFactoryImpl factory;
+    private String path;
+
+    @Setup
+    public void setup(TreeState state) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("resolver.pool.enabled", pool);
+        factory = new TypedResourceResolverFactoryImpl();
+        Components.bind(factory, "resolverFactory", new InMemoryResourceResolverFactory(state.tree, loginTokens));
+        Components.bind(factory, "sharedModels", Components.activate(new SharedModelCacheImpl(), Collections.emptyMap()));
+        Components.activate(factory, config);
+        path = state.tree.getPagePaths().get(0) + "/jcr:content";
+    }
+
+    @TearDown
+    public void tearDown() {
+        Components.deactivate(factory);
+    }
+
+    @Benchmark
+    public BenchModel execute() {
+        return factory.execute("bench", resolver -> resolver.findModel(path, BenchModel.class, BASE_TYPE));
+    }
+}
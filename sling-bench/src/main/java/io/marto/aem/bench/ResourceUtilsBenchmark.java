@@ -0,0 +1,84 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench;
+
+import static io.marto.aem.bench.tree.SyntheticTree.BASE_TYPE;
+import static io.marto.aem.bench.tree.SyntheticTree.CONTENT_ROOT;
+import static io.marto.aem.bench.tree.SyntheticTree.NEEDLE_TYPE;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.marto.aem.bench.tree.BenchModel;
+import io.marto.aem.lib.ResourceUtils;
+
+/**
+ * {@link ResourceUtils} type checks and tree traversals. Searching for the needle visits the whole tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResourceUtilsBenchmark {
+
+    private Resource root;
+    private Resource page;
+
+    @Setup
+    public void setup(TreeState state) {
+        final ResourceResolver resolver = state.tree.newResolver("bench");
+        root = resolver.getResource(CONTENT_ROOT);
+        page = resolver.getResource(state.tree.getPagePaths().get(0) + "/jcr:content");
+    }
+
+    @Benchmark
+    public BenchModel adapt() {
+        return ResourceUtils.adapt(page, BenchModel.class, BASE_TYPE);
+    }
+
+    @Benchmark
+    public Resource find1stChildResource() {
+        return ResourceUtils.find1stChildResource(root, NEEDLE_TYPE);
+    }
+
+    @Benchmark
+    public Resource traverseDepthFirst() {
+        return ResourceUtils.traverse(root).depthFirst().ofType(NEEDLE_TYPE).first();
+    }
+
+    @Benchmark
+    public List<Resource> traverseParallel() {
+        return ResourceUtils.traverse(root).parallel(Runtime.getRuntime().availableProcessors()).ofType(NEEDLE_TYPE).toList();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench;
+
+import java.util.Collections;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.marto.aem.bench.tree.SyntheticTree;
+import io.marto.aem.lib.impl.ResourceTypeCacheListener;
+
+/**
+ * The synthetic content tree shared by all the threads of a benchmark. Its shape is set with
+ * <code>-p width=.. -p depth=.. -p typeDepth=..</code>, and whether the
+ * resource type cache is enabled with <code>-p typeCache=..</code>.
+ */
+@State(Scope.Benchmark)
+public class TreeState {
+
+    /** the number of child pages of each page */
+    @Param("10")
+    public int width;
+
+    /** the number of levels of pages */
+    @Param("3")
+    public int depth;
+
+    /** the length of the resource super type chain of a page */
+    @Param("5")
+    public int typeDepth;
+
+    /** whether resource type checks are answered by the ResourceTypeCache */
+    @Param({ "false", "true" })
+    public boolean typeCache;
+
+    public SyntheticTree tree;
+
+    private ResourceTypeCacheListener typeCacheListener;
+
+    @Setup
+    public void setup() {
+        tree = new SyntheticTree(width, depth, typeDepth);
+        if (typeCache) {
+            typeCacheListener = Components.activate(new ResourceTypeCacheListener(), Collections.emptyMap());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (typeCacheListener != null) {
+            Components.deactivate(typeCacheListener);
+        }
+    }
+}
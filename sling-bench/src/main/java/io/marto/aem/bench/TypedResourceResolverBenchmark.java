@@ -0,0 +1,126 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench;
+
+import static io.marto.aem.bench.tree.SyntheticTree.BASE_TYPE;
+import static io.marto.aem.bench.tree.SyntheticTree.CONTENT_ROOT;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.sling.api.resource.Resource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.marto.aem.bench.tree.BenchModel;
+import io.marto.aem.lib.ModelPage;
+import io.marto.aem.lib.ModelSelector;
+import io.marto.aem.lib.PageRequest;
+import io.marto.aem.lib.Projection;
+import io.marto.aem.lib.TypedResourceResolver;
+import io.marto.aem.lib.impl.TypedResourceResolverImpl;
+
+/**
+ * Model lookups of a {@link TypedResourceResolver}, with and without memoization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TypedResourceResolverBenchmark {
+
+    private static final ModelSelector<BenchModel> CONTENT = ModelSelector.of(BenchModel.class, BASE_TYPE).withSubPath("jcr:content");
+    private static final ModelSelector<BenchModel> CHILDREN = CONTENT.under(CONTENT_ROOT);
+    private static final Projection PROJECTION = Projection.of("jcr:title", "rank").as("rank", Long.class);
+    private static final PageRequest PAGE = PageRequest.of(2, 3);
+    private static final PageRequest SORTED_PAGE = PAGE.sortedBy("rank", false);
+
+    @Param({ "false", "true" })
+    public boolean memoize;
+
+    private TypedResourceResolver resolver;
+    private List<String> contentPaths;
+    private List<Resource> pages;
+    private int next;
+
+    @Setup
+    public void setup(TreeState state) {
+        resolver = new TypedResourceResolverImpl(state.tree.newResolver("bench"), memoize, null, null);
+        contentPaths = state.tree.getPagePaths().stream()
+            .map(path -> path + "/jcr:content")
+            .collect(Collectors.toList());
+        pages = state.tree.getPagePaths().stream()
+            .map(resolver::getResource)
+            .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public BenchModel findModel() {
+        next = (next + 1) % contentPaths.size();
+        return resolver.findModel(contentPaths.get(next), BenchModel.class, BASE_TYPE);
+    }
+
+    @Benchmark
+    public BenchModel findModelSelector() {
+        next = (next + 1) % pages.size();
+        return resolver.findModel(pages.get(next), CONTENT);
+    }
+
+    @Benchmark
+    public List<BenchModel> listModelChildren() {
+        return resolver.listModelChildren(CONTENT_ROOT, "jcr:content", BenchModel.class, BASE_TYPE);
+    }
+
+    @Benchmark
+    public long streamModelChildren() {
+        return resolver.streamModelChildren(CONTENT_ROOT, "jcr:content", BenchModel.class, BASE_TYPE).count();
+    }
+
+    @Benchmark
+    public long streamModelChildrenSelector() {
+        return resolver.streamModelChildren(CHILDREN).count();
+    }
+
+    @Benchmark
+    public long streamProjectedChildren() {
+        return resolver.streamProjectedChildren(CONTENT_ROOT, "jcr:content", BASE_TYPE, PROJECTION).count();
+    }
+
+    @Benchmark
+    public ModelPage<BenchModel> pageModelChildren() {
+        return resolver.pageModelChildren(CONTENT_ROOT, "jcr:content", BenchModel.class, BASE_TYPE, PAGE);
+    }
+
+    @Benchmark
+    public ModelPage<BenchModel> pageModelChildrenSorted() {
+        return resolver.pageModelChildren(CONTENT_ROOT, "jcr:content", BenchModel.class, BASE_TYPE, SORTED_PAGE);
+    }
+}
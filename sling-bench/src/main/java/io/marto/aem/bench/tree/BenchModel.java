@@ -0,0 +1,42 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench.tree;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+
+import lombok.Getter;
+
+/**
+ * Stands in for a Sling Model: it reads a few properties of its resource when it's adapted.
+ */
+@Getter
+public class BenchModel {
+
+    private final String path;
+    private final String title;
+    private final long rank;
+
+    public BenchModel(Resource resource) {
+        final ValueMap properties = resource.getValueMap();
+        this.path = resource.getPath();
+        this.title = properties.get("jcr:title", String.class);
+        this.rank = properties.get("rank", 0L);
+    }
+}
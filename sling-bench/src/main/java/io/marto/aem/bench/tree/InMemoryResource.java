@@ -0,0 +1,95 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench.tree;
+
+import java.util.Map;
+
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A {@link org.apache.sling.api.resource.Resource} view of a {@link Node} through a given resolver. Like a JCR backed
+ * resource, a new instance is created on every lookup.
+ */
+@RequiredArgsConstructor
+public class InMemoryResource extends AbstractResource {
+
+    private final InMemoryResourceResolver resolver;
+    private final Node node;
+
+    @Override
+    public String getPath() {
+        return node.getPath();
+    }
+
+    @Override
+    public String getName() {
+        return node.getName();
+    }
+
+    @Override
+    public String getResourceType() {
+        final Object type = node.getProperties().get(ResourceResolver.PROPERTY_RESOURCE_TYPE);
+        return type == null ? "nt:unstructured" : type.toString();
+    }
+
+    @Override
+    public String getResourceSuperType() {
+        final Object type = node.getProperties().get("sling:resourceSuperType");
+        return type == null ? null : type.toString();
+    }
+
+    @Override
+    public ResourceMetadata getResourceMetadata() {
+        final ResourceMetadata metadata = new ResourceMetadata();
+        metadata.setResolutionPath(node.getPath());
+        return metadata;
+    }
+
+    @Override
+    public ResourceResolver getResourceResolver() {
+        return resolver;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+        if (type == ValueMap.class || type == Map.class) {
+            return (AdapterType) new ValueMapDecorator(node.getProperties());
+        }
+        if (type == BenchModel.class) {
+            return (AdapterType) new BenchModel(this);
+        }
+        return super.adaptTo(type);
+    }
+
+    Node getNode() {
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + node.getPath() + "]";
+    }
+}
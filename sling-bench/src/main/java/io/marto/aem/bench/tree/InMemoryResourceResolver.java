@@ -0,0 +1,276 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench.tree;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.sling.api.resource.NonExistingResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A read only {@link ResourceResolver} over a tree of {@link Node nodes}, so that benchmarks don't need a running Sling
+ * instance. Like the JCR resource resolver, resource types are resolved against the <code>/apps</code> and
+ * <code>/libs</code> search paths and super types are read from the component definitions there.
+ */
+@RequiredArgsConstructor
+public class InMemoryResourceResolver implements ResourceResolver {
+
+    private static final String[] SEARCH_PATH = { "/apps/", "/libs/" };
+
+    private final Node root;
+    private final String userId;
+    private boolean live = true;
+
+    @Override
+    public Resource getResource(String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        if (!path.startsWith("/")) {
+            for (String searchPath : SEARCH_PATH) {
+                final Resource resource = getResource(searchPath + path);
+                if (resource != null) {
+                    return resource;
+                }
+            }
+            return null;
+        }
+        Node node = root;
+        int start = 1;
+        while (node != null && start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end > start) {
+                node = node.getChildren().get(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return node == null ? null : new InMemoryResource(this, node);
+    }
+
+    @Override
+    public Resource getResource(Resource base, String path) {
+        if (path == null || path.startsWith("/") || base == null) {
+            return getResource(path);
+        }
+        return getResource(base.getPath() + "/" + path);
+    }
+
+    @Override
+    public Iterator<Resource> listChildren(Resource parent) {
+        final Node node = nodeOf(parent);
+        if (node == null) {
+            return Collections.emptyIterator();
+        }
+        final Iterator<Node> children = node.getChildren().values().iterator();
+        return new Iterator<Resource>() {
+            @Override
+            public boolean hasNext() {
+                return children.hasNext();
+            }
+
+            @Override
+            public Resource next() {
+                return new InMemoryResource(InMemoryResourceResolver.this, children.next());
+            }
+        };
+    }
+
+    @Override
+    public Iterable<Resource> getChildren(Resource parent) {
+        return () -> listChildren(parent);
+    }
+
+    @Override
+    public boolean hasChildren(Resource resource) {
+        final Node node = nodeOf(resource);
+        return node != null && !node.getChildren().isEmpty();
+    }
+
+    @Override
+    public Resource getParent(Resource child) {
+        final String path = child.getPath();
+        final int idx = path.lastIndexOf('/');
+        return idx <= 0 ? ("/".equals(path) ? null : getResource("/")) : getResource(path.substring(0, idx));
+    }
+
+    @Override
+    public String getParentResourceType(Resource resource) {
+        final String superType = resource.getResourceSuperType();
+        return superType != null ? superType : getParentResourceType(resource.getResourceType());
+    }
+
+    @Override
+    public String getParentResourceType(String resourceType) {
+        final Resource component = resourceType == null ? null : getResource(resourceType);
+        return component == null ? null : component.getResourceSuperType();
+    }
+
+    @Override
+    public boolean isResourceType(Resource resource, String resourceType) {
+        if (resource == null || resourceType == null) {
+            return false;
+        }
+        if (resourceType.equals(resource.getResourceType())) {
+            return true;
+        }
+        final Set<String> seen = new HashSet<>();
+        for (String type = getParentResourceType(resource); type != null && seen.add(type); type = getParentResourceType(type)) {
+            if (resourceType.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Resource resolve(HttpServletRequest request, String absPath) {
+        return resolve(absPath);
+    }
+
+    @Override
+    public Resource resolve(String absPath) {
+        final Resource resource = getResource(absPath);
+        return resource == null ? new NonExistingResource(this, absPath) : resource;
+    }
+
+    @Override
+    public Resource resolve(HttpServletRequest request) {
+        return resolve(request.getPathInfo());
+    }
+
+    @Override
+    public String map(String resourcePath) {
+        return resourcePath;
+    }
+
+    @Override
+    public String map(HttpServletRequest request, String resourcePath) {
+        return resourcePath;
+    }
+
+    @Override
+    public String[] getSearchPath() {
+        return SEARCH_PATH.clone();
+    }
+
+    @Override
+    public Iterator<Resource> findResources(String query, String language) {
+        throw new UnsupportedOperationException("Queries aren't supported by the in-memory tree");
+    }
+
+    @Override
+    public Iterator<Map<String, Object>> queryResources(String query, String language) {
+        throw new UnsupportedOperationException("Queries aren't supported by the in-memory tree");
+    }
+
+    @Override
+    public ResourceResolver clone(Map<String, Object> authenticationInfo) {
+        return new InMemoryResourceResolver(root, userId);
+    }
+
+    @Override
+    public boolean isLive() {
+        return live;
+    }
+
+    @Override
+    public void close() {
+        live = false;
+    }
+
+    @Override
+    public String getUserID() {
+        return userId;
+    }
+
+    @Override
+    public Iterator<String> getAttributeNames() {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return null;
+    }
+
+    @Override
+    public void delete(Resource resource) {
+        throw new UnsupportedOperationException("The in-memory tree is read only");
+    }
+
+    @Override
+    public Resource create(Resource parent, String name, Map<String, Object> properties) {
+        throw new UnsupportedOperationException("The in-memory tree is read only");
+    }
+
+    @Override
+    public void revert() {
+        // read only, so nothing to revert
+    }
+
+    @Override
+    public void commit() {
+        // read only, so nothing to commit
+    }
+
+    @Override
+    public boolean hasChanges() {
+        return false;
+    }
+
+    @Override
+    public void refresh() {
+        // the tree never changes
+    }
+
+    @Override
+    public Resource copy(String srcAbsPath, String destAbsPath) {
+        throw new UnsupportedOperationException("The in-memory tree is read only");
+    }
+
+    @Override
+    public Resource move(String srcAbsPath, String destAbsPath) {
+        throw new UnsupportedOperationException("The in-memory tree is read only");
+    }
+
+    @Override
+    public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+        return null;
+    }
+
+    private Node nodeOf(Resource resource) {
+        if (resource instanceof InMemoryResource) {
+            return ((InMemoryResource) resource).getNode();
+        }
+        final Resource res = resource == null ? null : getResource(resource.getPath());
+        return res == null ? null : ((InMemoryResource) res).getNode();
+    }
+}
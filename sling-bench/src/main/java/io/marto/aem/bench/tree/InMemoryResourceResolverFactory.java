@@ -0,0 +1,65 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench.tree;
+
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.openjdk.jmh.infra.Blackhole;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Logs into a {@link SyntheticTree}. As logging into an in-memory tree is free, each login burns
+ * <code>loginTokens</code> of CPU (see {@link Blackhole#consumeCPU(long)}) to stand in for the cost of creating a
+ * repository session.
+ */
+@RequiredArgsConstructor
+public class InMemoryResourceResolverFactory implements ResourceResolverFactory {
+
+    private final SyntheticTree tree;
+    private final long loginTokens;
+
+    @Override
+    public ResourceResolver getResourceResolver(Map<String, Object> authenticationInfo) {
+        return login("anonymous");
+    }
+
+    @Override
+    public ResourceResolver getAdministrativeResourceResolver(Map<String, Object> authenticationInfo) {
+        return login("admin");
+    }
+
+    @Override
+    public ResourceResolver getServiceResourceResolver(Map<String, Object> authenticationInfo) {
+        final Object subService = authenticationInfo == null ? null : authenticationInfo.get(SUBSERVICE);
+        return login("service-" + subService);
+    }
+
+    @Override
+    public ResourceResolver getThreadResourceResolver() {
+        return null;
+    }
+
+    private ResourceResolver login(String userId) {
+        Blackhole.consumeCPU(loginTokens);
+        return tree.newResolver(userId);
+    }
+}
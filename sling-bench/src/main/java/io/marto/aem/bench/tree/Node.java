@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench.tree;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import lombok.Getter;
+
+/**
+ * A node of an in-memory content tree. Nodes are built once by {@link SyntheticTree} and only read afterwards, so a tree
+ * can be shared by any number of {@link InMemoryResourceResolver resolvers} and threads.
+ */
+@Getter
+public final class Node {
+
+    private final String path;
+    private final String name;
+    private final Map<String, Object> properties = new HashMap<>();
+    private final Map<String, Node> children = new LinkedHashMap<>();
+
+    Node(Node parent, String name) {
+        this.name = name;
+        this.path = parent == null ? "/" : ("/".equals(parent.path) ? "" : parent.path) + "/" + name;
+    }
+
+    /**
+     * @return the child called <code>name</code>, which is created if it doesn't exist
+     */
+    Node child(String name) {
+        return children.computeIfAbsent(name, n -> new Node(this, n));
+    }
+
+    Node property(String key, Object value) {
+        properties.put(key, value);
+        return this;
+    }
+
+    Node resourceType(String type) {
+        return property(ResourceResolver.PROPERTY_RESOURCE_TYPE, type);
+    }
+
+    public Map<String, Object> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.bench.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import lombok.Getter;
+
+/**
+ * Builds an in-memory content tree of pages, like:
+ * <pre>
+ * /content/bench
+ *   page-0
+ *     jcr:content          (sling:resourceType = bench/components/type0, jcr:title, rank)
+ *       par
+ *         text-0 .. text-2 (sling:resourceType = bench/components/text)
+ *     page-0 .. page-[width-1]
+ *   ...
+ * /apps/bench/components/type0 .. type[typeDepth-1]
+ * /libs/bench/components/base
+ * </pre>
+ * where <code>bench/components/type0</code> inherits from <code>type1</code> and so on up to <code>base</code>, so a
+ * check against {@link #BASE_TYPE} walks <code>typeDepth</code> super types. The last page at the deepest level has a
+ * single {@link #NEEDLE_TYPE} component, so searching for it visits the whole tree.
+ */
+public final class SyntheticTree {
+
+    public static final String CONTENT_ROOT = "/content/bench";
+    public static final String PAGE_TYPE = "bench/components/type0";
+    public static final String BASE_TYPE = "bench/components/base";
+    public static final String TEXT_TYPE = "bench/components/text";
+    public static final String NEEDLE_TYPE = "bench/components/needle";
+
+    private static final int COMPONENTS_PER_PAGE = 3;
+
+    private final @Getter Node root = new Node(null, "");
+    /** the paths of all pages, in depth first order */
+    private final List<String> pagePaths = new ArrayList<>();
+    private @Getter String needlePath;
+
+    /**
+     * @param width the number of child pages of each page (and of {@link #CONTENT_ROOT})
+     * @param depth the number of levels of pages
+     * @param typeDepth the number of super types between {@link #PAGE_TYPE} and {@link #BASE_TYPE}
+     */
+    public SyntheticTree(int width, int depth, int typeDepth) {
+        buildTypes(typeDepth);
+        final Node content = root.child("content").child("bench");
+        buildPages(content, width, depth);
+        if (!pagePaths.isEmpty()) {
+            needlePath = pageNode(pagePaths.get(pagePaths.size() - 1)).child("jcr:content").child("par")
+                .child("needle").resourceType(NEEDLE_TYPE).getPath();
+        }
+    }
+
+    /**
+     * @return a new resolver of the tree
+     */
+    public ResourceResolver newResolver(String userId) {
+        return new InMemoryResourceResolver(root, userId);
+    }
+
+    public List<String> getPagePaths() {
+        return Collections.unmodifiableList(pagePaths);
+    }
+
+    private void buildTypes(int typeDepth) {
+        final Node apps = root.child("apps").child("bench").child("components");
+        for (int i = 0; i < typeDepth; i++) {
+            apps.child("type" + i)
+                .property("sling:resourceSuperType", i + 1 < typeDepth ? "bench/components/type" + (i + 1) : BASE_TYPE);
+        }
+        root.child("libs").child("bench").child("components").child("base");
+        apps.child("text");
+        apps.child("needle");
+    }
+
+    private Node pageNode(String path) {
+        Node node = root;
+        for (String name : path.substring(1).split("/")) {
+            node = node.child(name);
+        }
+        return node;
+    }
+
+    private void buildPages(Node parent, int width, int depth) {
+        for (int i = 0; i < width; i++) {
+            final Node page = parent.child("page-" + i);
+            pagePaths.add(page.getPath());
+            final Node content = page.child("jcr:content")
+                .resourceType(PAGE_TYPE)
+                .property("jcr:title", "Page " + page.getPath())
+                .property("rank", (long) ((page.getPath().hashCode() & 0x7fffffff) % 1000));
+            final Node par = content.child("par").resourceType("foundation/components/parsys");
+            for (int c = 0; c < COMPONENTS_PER_PAGE; c++) {
+                par.child("text-" + c).resourceType(TEXT_TYPE).property("text", "Text " + c);
+            }
+            if (depth > 1) {
+                buildPages(page, width, depth - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.PersistenceException;
+
+/**
+ * The batching of the changes of a {@link BatchTask}. The task reports each change it makes, along with its position
+ * (i.e. the path or row number of the item it's processed), and the changes are committed once enough of them are
+ * pending or enough time has passed since the last commit. Batches are only committed from within these calls, on the
+ * task's thread, as the resolver isn't thread safe.
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public interface Batch {
+
+    /**
+     * @return the position of the last change committed by a previous run of the task that didn't finish, which it
+     *         should resume after; null to start from the beginning
+     */
+    @CheckForNull String getResumePosition();
+
+    /**
+     * Report a change, committing the pending changes if a batch is due.
+     *
+     * @param position the position of the change
+     * @throws PersistenceException if the batch can't be committed
+     */
+    void changed(String position) throws PersistenceException;
+
+    /**
+     * Report a number of changes, committing the pending changes if a batch is due.
+     *
+     * @param changes the number of changes
+     * @param position the position of the last of the changes
+     * @throws PersistenceException if the batch can't be committed
+     */
+    void changed(int changes, String position) throws PersistenceException;
+
+    /**
+     * Commit the pending changes now, i.e. before changes that must not be split from one another.
+     *
+     * @param position the position of the last of the changes
+     * @throws PersistenceException if the batch can't be committed
+     */
+    void commit(String position) throws PersistenceException;
+
+    /**
+     * @return the progress of the committed changes
+     */
+    @Nonnull BatchProgress getProgress();
+}
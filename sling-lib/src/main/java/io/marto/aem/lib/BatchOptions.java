@@ -0,0 +1,110 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.function.Consumer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * The immutable options of {@link TypedResourceResolverFactory#executeBatched(String, BatchOptions, BatchTask)}.
+ *
+ * <h3>Example</h3>
+ * <pre><code>
+ * BatchOptions.everyChanges(1000)
+ *     .orEveryMillis(5000)
+ *     .withCheckpoint("/var/my-project/migrations/2017-tags")
+ *     .onProgress(progress -&gt; LOGGER.info("Migrated {}", progress))
+ * </code></pre>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class BatchOptions {
+
+    /** commit once this many changes are pending */
+    private final int maxChanges;
+    /** commit once this long has passed since the last commit, checked as changes are reported */
+    private final long maxMillis;
+    /** the path of the resource the position of the last committed change is kept at, null to not keep it */
+    private final @CheckForNull String checkpointPath;
+    /** the position to resume after, which takes precedence over the checkpoint */
+    private final @CheckForNull String resumePosition;
+    /** told of the progress after each commit */
+    private final @CheckForNull Consumer<BatchProgress> progressListener;
+
+    /**
+     * @param maxChanges commit once this many changes are pending
+     * @return the options of batches of <code>maxChanges</code>
+     */
+    public static @Nonnull BatchOptions everyChanges(int maxChanges) {
+        if (maxChanges < 1) {
+            throw new IllegalArgumentException("maxChanges must be positive: " + maxChanges);
+        }
+        return new BatchOptions(maxChanges, Long.MAX_VALUE, null, null, null);
+    }
+
+    /**
+     * @param millis also commit once this long has passed since the last commit
+     * @return a copy of these options that also commits by time
+     */
+    public @Nonnull BatchOptions orEveryMillis(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("millis must be positive: " + millis);
+        }
+        return new BatchOptions(maxChanges, millis, checkpointPath, resumePosition, progressListener);
+    }
+
+    /**
+     * Keep the position of the last committed change at <code>path</code>, which is written in the same commit as the
+     * changes themselves. A task that fails resumes from there when run again, and the checkpoint is removed once the task
+     * succeeds.
+     *
+     * @param path the absolute path of the checkpoint resource, which is created if it doesn't exist
+     * @return a copy of these options that keeps a checkpoint
+     */
+    public @Nonnull BatchOptions withCheckpoint(String path) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Not an absolute path: " + path);
+        }
+        return new BatchOptions(maxChanges, maxMillis, path, resumePosition, progressListener);
+    }
+
+    /**
+     * @param position the position to resume after, i.e. one told to the progress listener
+     * @return a copy of these options that resumes after <code>position</code>
+     */
+    public @Nonnull BatchOptions resumeFrom(String position) {
+        return new BatchOptions(maxChanges, maxMillis, checkpointPath, position, progressListener);
+    }
+
+    /**
+     * @param listener told of the progress after each commit
+     * @return a copy of these options that reports progress to <code>listener</code>
+     */
+    public @Nonnull BatchOptions onProgress(Consumer<BatchProgress> listener) {
+        return new BatchOptions(maxChanges, maxMillis, checkpointPath, resumePosition, listener);
+    }
+}
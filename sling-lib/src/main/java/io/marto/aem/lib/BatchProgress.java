@@ -0,0 +1,41 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import javax.annotation.CheckForNull;
+
+import lombok.Value;
+
+/**
+ * An immutable snapshot of the progress of a {@link BatchTask}, as of its last commit.
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Value
+public class BatchProgress {
+
+    /** the position of the last change committed, null if none have been */
+    private final @CheckForNull String position;
+    /** the number of changes committed */
+    private final long changes;
+    /** the number of batches committed */
+    private final int batches;
+    /** the time since the task started */
+    private final long elapsedMillis;
+}
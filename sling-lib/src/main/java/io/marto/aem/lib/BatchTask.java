@@ -0,0 +1,41 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import org.apache.sling.api.resource.PersistenceException;
+
+/**
+ * Used by {@link TypedResourceResolverFactory#executeBatched(String, BatchOptions, BatchTask)} to execute some business
+ * logic that writes more than should be committed at once.
+ *
+ * @param <R> the type of result the task returns
+ * @param <E> the type of exception the task may throw if an error occurs
+ */
+public interface BatchTask<R, E extends Exception> {
+
+    /**
+     * @param resolver the sling resource resolver to make the changes with
+     * @param batch to report each change to, which commits the changes made so far when a batch is due
+     * @return the result of the execute task. This may be {@link Void}.
+     * @throws E an error when things go wrong
+     * @throws PersistenceException if a batch can't be committed
+     */
+    R run(TypedResourceResolver resolver, Batch batch) throws E, PersistenceException;
+
+}
@@ -0,0 +1,48 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import lombok.Value;
+
+/**
+ * An immutable point in time snapshot of the statistics of a cache.
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Value
+public class CacheStats {
+
+    /** Statistics of a cache that is disabled. */
+    public static final CacheStats DISABLED = new CacheStats(0, 0, 0);
+
+    /** the number of lookups answered by the cache */
+    private final long hits;
+    /** the number of lookups that had to go to the repository */
+    private final long misses;
+    /** the number of entries currently held */
+    private final long size;
+
+    /**
+     * @return the ratio of hits to lookups, 0 if there weren't any lookups
+     */
+    public double getHitRatio() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0d : (double) hits / lookups;
+    }
+}
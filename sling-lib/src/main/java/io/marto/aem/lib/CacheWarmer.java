@@ -0,0 +1,52 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-loads configured content and models in the background after startup (OSGi Service), so that the first requests
+ * don't all pay for cold repository reads and model adaptations. A readiness check can wait for it to finish.
+ *
+ * <h3>Example</h3>
+ * <pre><code>
+ * if (!cacheWarmer.awaitWarm(30, TimeUnit.SECONDS)) {
+ *     return Result.notReady("still warming up");
+ * }
+ * </code></pre>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public interface CacheWarmer {
+
+    /**
+     * @return whether the warm up has finished: every entry has been warmed, has failed or was cut short by the time budget
+     */
+    boolean isWarm();
+
+    /**
+     * Wait for the warm up to finish.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of <code>timeout</code>
+     * @return whether the warm up finished, false if <code>timeout</code> elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitWarm(long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,44 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a model class as immutable and safe to share between resolvers and requests. Instances of such a class that are
+ * looked up via a {@link TypedResourceResolver} obtained from the {@link TypedResourceResolverFactory} are kept in the
+ * {@link SharedModelCache}.
+ * <p>
+ * A cacheable model must not hold on to the {@link org.apache.sling.api.resource.Resource Resource} or
+ * {@link org.apache.sling.api.resource.ResourceResolver ResourceResolver} it was adapted from, and should only read
+ * content at or below the resource it was adapted from, as that is the content whose changes evict it.
+ * </p>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface CacheableModel {
+}
@@ -0,0 +1,713 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+
+/**
+ * An immutable, compact copy of a subtree of resources held in a buffer, for rarely changing content (i.e. tag
+ * taxonomies or site navigation) that is read far more often than it changes. Reading it needs no resolver and hardly
+ * any heap: a {@link SnapshotNode node} is a handle on the buffer and its values are decoded as they are read.
+ *
+ * <h3>Example</h3>
+ * <pre><code>
+ * ContentSnapshot navigation = ContentSnapshot.of(resolver.getResource("/content/site/en"));
+ * ...
+ * for (SnapshotNode page : navigation.getRoot().getChildren()) {
+ *     SnapshotNode content = page.getChild("jcr:content");
+ *     String title = content == null ? null : content.getString("jcr:title");
+ *     ...
+ * }
+ * </code></pre>
+ *
+ * <p>
+ * The buffer holds a pool of the distinct strings (paths, names, resource types and string values), the nodes ordered by
+ * path for lookups by binary search, and for each node its resource type, parent, children in repository order and
+ * properties. Strings, longs, doubles, booleans and dates are kept as is, arrays as arrays of strings; binary
+ * properties are left out.
+ * </p>
+ * <p>
+ * A snapshot is held off heap, in direct buffers. A snapshot {@link #update(ResourceResolver, Collection) updated} with
+ * changes shares the buffer of the snapshot it was updated from, its base, and keeps only the nodes read again in a
+ * small buffer of its own, its overlay, along with the paths of the subtrees removed from the base. Once the overlay
+ * grows past an 8th of the snapshot it is compacted, with the base, into the buffer of a new base.
+ * </p>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public final class ContentSnapshot {
+
+    static final byte STRING = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte BOOLEAN = 4;
+    static final byte DATE = 5;
+    static final byte STRINGS = 6;
+
+    /** The overlay is compacted into the base once it holds more nodes and removals than this, or than an 8th of the nodes */
+    static final int MIN_OVERLAY = 64;
+
+    /** The offset of the (int) path, resource type, parent and child count of a node, followed by its children */
+    private static final int PATH = 0;
+    private static final int TYPE = 4;
+    private static final int PARENT = 8;
+    private static final int CHILD_COUNT = 12;
+    private static final int CHILDREN = 16;
+
+    /** Orders paths like their UTF-8 bytes, the order the nodes are searched in */
+    static final Comparator<String> PATH_ORDER = (a, b) -> {
+        final int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            final char x = a.charAt(i);
+            final char y = b.charAt(i);
+            if (x != y) {
+                return codePointOrder(x) - codePointOrder(y);
+            }
+        }
+        return a.length() - b.length();
+    };
+
+    private final String rootPath;
+    private final Segment base;
+    /** The nodes changed or added since the base was taken, null if there are none */
+    private final @CheckForNull Segment overlay;
+    /** The subtrees removed (or replaced) since the base was taken, whose nodes in the base are hidden */
+    private final Set<String> removed;
+    private final int size;
+
+    private ContentSnapshot(String rootPath, Segment base, @CheckForNull Segment overlay, Set<String> removed) {
+        this.rootPath = rootPath;
+        this.base = base;
+        this.overlay = overlay;
+        this.removed = removed;
+        int nodes = base.size;
+        for (String path : removed) {
+            nodes -= base.count(path);
+        }
+        if (overlay != null) {
+            for (int i = 0; i < overlay.size; i++) {
+                final String path = overlay.path(overlay.nodeOffset(i));
+                if (!isRemoved(removed, path) && base.find(path.getBytes(UTF_8)) >= 0) {
+                    nodes--;
+                }
+            }
+            nodes += overlay.size;
+        }
+        this.size = nodes;
+    }
+
+    /**
+     * Read the subtree of <code>root</code> into a snapshot.
+     *
+     * @param root the root of the subtree
+     * @return the snapshot of the subtree, as visible to the resolver of <code>root</code>
+     */
+    public static @Nonnull ContentSnapshot of(Resource root) {
+        if (root == null) {
+            throw new IllegalArgumentException();
+        }
+        final NavigableMap<String, Entry> entries = new TreeMap<>(PATH_ORDER);
+        readSubtree(root, entries);
+        return new ContentSnapshot(root.getPath(), Segment.encode(root.getPath(), entries, true), null, Collections.emptySet());
+    }
+
+    /**
+     * A snapshot with <code>changes</code> applied, where only the changed resources are read again: a changed resource
+     * itself, and an added resource with its subtree along with its parent (for the order of its children). The nodes
+     * read again go into the overlay of the snapshot, which is compacted once it grows past {@link #MIN_OVERLAY} nodes
+     * and an 8th of the snapshot.
+     *
+     * @param resolver the resolver to read the changed resources with
+     * @param changes the changes to apply, those outside of the subtree are ignored but for an ancestor added or removed
+     * @return the updated snapshot; this one if none of <code>changes</code> are in the subtree
+     */
+    public @Nonnull ContentSnapshot update(ResourceResolver resolver, Collection<ResourceChange> changes) {
+        NavigableMap<String, Entry> changed = null;
+        Set<String> gone = null;
+        for (ResourceChange change : changes) {
+            // an ancestor added or removed takes the subtree with it
+            final boolean above = change.getType() != ChangeType.CHANGED && isAncestorOrSelf(change.getPath(), rootPath);
+            final String path = above ? rootPath : change.getPath();
+            if (!isAncestorOrSelf(rootPath, path)) {
+                continue;
+            }
+            if (changed == null) {
+                changed = overlay == null ? new TreeMap<>(PATH_ORDER) : overlay.decode(null);
+                gone = new HashSet<>(removed);
+            }
+            final Resource resource = resolver.getResource(path);
+            if (change.getType() == ChangeType.CHANGED && resource != null
+                && (changed.containsKey(path) || !isRemoved(gone, path) && base.find(path.getBytes(UTF_8)) >= 0)) {
+                changed.put(path, new Entry(resource));
+                continue;
+            }
+            changed.remove(path);
+            changed.subMap(path + "/", path + "0").clear();
+            if (base.count(path) > 0) {
+                gone.removeIf(p -> isAncestorOrSelf(path, p));
+                gone.add(path);
+            }
+            if (resource != null) {
+                readSubtree(resource, changed);
+            }
+            final String parentPath = path.equals(rootPath) ? null : ResourceUtil.getParent(path);
+            final Resource parent = parentPath == null ? null : resolver.getResource(parentPath);
+            if (parent != null) {
+                changed.put(parentPath, new Entry(parent));
+            }
+        }
+        if (changed == null) {
+            return this;
+        }
+        if (changed.size() + gone.size() > Math.max(MIN_OVERLAY, size / 8)) {
+            final Map<String, Entry> overlaid = changed;
+            final Set<String> hidden = gone;
+            final NavigableMap<String, Entry> entries = base.decode(path -> !overlaid.containsKey(path) && !isRemoved(hidden, path));
+            entries.putAll(changed);
+            return new ContentSnapshot(rootPath, Segment.encode(rootPath, entries, true), null, Collections.emptySet());
+        }
+        return new ContentSnapshot(rootPath, base, changed.isEmpty() ? null : Segment.encode(rootPath, changed, false),
+            Collections.unmodifiableSet(gone));
+    }
+
+    /**
+     * @return the path of the root of the subtree
+     */
+    public @Nonnull String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * @return the root node, null if the root wasn't readable when the snapshot was taken
+     */
+    public @CheckForNull SnapshotNode getRoot() {
+        return getNode(rootPath);
+    }
+
+    /**
+     * @param path the absolute path of a node
+     * @return the node at <code>path</code>, null if there's none in the snapshot
+     */
+    public @CheckForNull SnapshotNode getNode(String path) {
+        final byte[] key = path.getBytes(UTF_8);
+        if (overlay != null) {
+            final int index = overlay.find(key);
+            if (index >= 0) {
+                return new SnapshotNode(this, overlay, overlay.nodeOffset(index));
+            }
+        }
+        if (isRemoved(removed, path)) {
+            return null;
+        }
+        final int index = base.find(key);
+        return index < 0 ? null : new SnapshotNode(this, base, base.nodeOffset(index));
+    }
+
+    /**
+     * @return the number of nodes in the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the snapshot takes off heap, including the overlay of its updates
+     */
+    public int getByteSize() {
+        return base.buffer.capacity() + (overlay == null ? 0 : overlay.buffer.capacity());
+    }
+
+    @Override
+    public String toString() {
+        return "ContentSnapshot(" + rootPath + ", " + size + " nodes, " + getByteSize() + " bytes)";
+    }
+
+    /**
+     * @return the number of nodes in the overlay, 0 once it has been compacted
+     */
+    int getOverlaySize() {
+        return overlay == null ? 0 : overlay.size;
+    }
+
+    @CheckForNull SnapshotNode parent(Segment segment, int node) {
+        if (isBase()) {
+            final int index = segment.buffer.getInt(node + PARENT);
+            return index < 0 ? null : new SnapshotNode(this, segment, segment.nodeOffset(index));
+        }
+        final String path = segment.path(node);
+        final String parentPath = path.equals(rootPath) ? null : ResourceUtil.getParent(path);
+        return parentPath == null ? null : getNode(parentPath);
+    }
+
+    List<SnapshotNode> children(Segment segment, int node) {
+        final int count = segment.childCount(node);
+        final List<SnapshotNode> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (isBase()) {
+                ret.add(new SnapshotNode(this, segment, segment.nodeOffset(segment.child(node, i))));
+            } else {
+                // the child may have been changed or removed since, or be a node of the other segment
+                final SnapshotNode child = getNode(segment.childPath(node, i));
+                if (child != null) {
+                    ret.add(child);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether the snapshot is only its base, where nodes refer to each other by index
+     */
+    private boolean isBase() {
+        return overlay == null && removed.isEmpty();
+    }
+
+    /**
+     * @return whether <code>path</code> is in a subtree of <code>removed</code>
+     */
+    private static boolean isRemoved(Set<String> removed, String path) {
+        if (removed.isEmpty()) {
+            return false;
+        }
+        for (String p = path; p != null; p = ResourceUtil.getParent(p)) {
+            if (removed.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void readSubtree(Resource root, Map<String, Entry> entries) {
+        for (Resource resource : ResourceUtils.traverse(root)) {
+            entries.put(resource.getPath(), new Entry(resource));
+        }
+    }
+
+    private static void write(Object value, DataOutputStream out, Map<String, Integer> refs, List<byte[]> pool) throws IOException {
+        if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Calendar) {
+            out.writeByte(DATE);
+            out.writeLong(((Calendar) value).getTimeInMillis());
+        } else if (value instanceof String[]) {
+            out.writeByte(STRINGS);
+            out.writeInt(((String[]) value).length);
+            for (String element : (String[]) value) {
+                out.writeInt(ref(element, refs, pool));
+            }
+        } else {
+            out.writeByte(STRING);
+            out.writeInt(ref(String.valueOf(value), refs, pool));
+        }
+    }
+
+    private static int ref(String value, Map<String, Integer> refs, List<byte[]> pool) {
+        return refs.computeIfAbsent(value, string -> {
+            pool.add(string.getBytes(UTF_8));
+            return pool.size() - 1;
+        });
+    }
+
+    /**
+     * @return <code>value</code> as one of the types a snapshot holds, null if it can't hold it (i.e. a binary)
+     */
+    private static @CheckForNull Object snapshotValue(Object value) {
+        if (value instanceof String || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Double || value instanceof Float) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Calendar) {
+            return value;
+        } else if (value instanceof Date) {
+            final Calendar date = new GregorianCalendar();
+            date.setTime((Date) value);
+            return date;
+        } else if (value instanceof Object[]) {
+            final Object[] values = (Object[]) value;
+            final String[] ret = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                ret[i] = values[i] instanceof Calendar ? format((Calendar) values[i]) : String.valueOf(values[i]);
+            }
+            return ret;
+        } else if (value instanceof Number) {
+            return value.toString();
+        }
+        return null;
+    }
+
+    private static String format(Calendar date) {
+        return ZonedDateTime.ofInstant(date.toInstant(), date.getTimeZone().toZoneId()).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+
+    private static boolean isAncestorOrSelf(String ancestor, String path) {
+        return path.startsWith(ancestor)
+            && (path.length() == ancestor.length() || ancestor.endsWith("/") || path.charAt(ancestor.length()) == '/');
+    }
+
+    /**
+     * @return the position of the code point <code>c</code> is (part of) in code point order: surrogates after the rest
+     */
+    private static int codePointOrder(char c) {
+        return c < 0xD800 ? c : c < 0xE000 ? c + 0x2000 : c - 0x800;
+    }
+
+    /**
+     * The nodes of a snapshot, ordered by path, in a direct buffer: either all of them (the base), where a node refers to
+     * its parent and children by index, or those changed since (the overlay), where a node refers to its children by
+     * path as they may be in either segment.
+     */
+    static final class Segment {
+        private final ByteBuffer buffer;
+        /** Whether nodes refer to their parent and children by index, or to their children by path */
+        private final boolean indexed;
+        private final int nodeIndex;
+        private final int size;
+
+        private Segment(ByteBuffer buffer, boolean indexed) {
+            this.buffer = buffer;
+            this.indexed = indexed;
+            final int poolSizeOffset = 4 + 4 * buffer.getInt(0);
+            this.nodeIndex = poolSizeOffset + 4 + buffer.getInt(poolSizeOffset);
+            this.size = buffer.getInt(nodeIndex);
+        }
+
+        /**
+         * @return the index of the node at the path <code>key</code> (in UTF-8), or -(the index it would be at) - 1
+         */
+        int find(byte[] key) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(buffer.getInt(nodeOffset(mid) + PATH), key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        /**
+         * @return the number of nodes at and below <code>path</code>
+         */
+        int count(String path) {
+            final int self = find(path.getBytes(UTF_8));
+            final int from = find((path + "/").getBytes(UTF_8));
+            final int to = find((path + "0").getBytes(UTF_8));
+            return (self >= 0 ? 1 : 0) + (to < 0 ? -to - 1 : to) - (from < 0 ? -from - 1 : from);
+        }
+
+        String path(int node) {
+            return string(buffer.getInt(node + PATH));
+        }
+
+        @CheckForNull String resourceType(int node) {
+            final int ref = buffer.getInt(node + TYPE);
+            return ref < 0 ? null : string(ref);
+        }
+
+        int childCount(int node) {
+            return buffer.getInt(node + CHILD_COUNT);
+        }
+
+        /**
+         * @return the index of the <code>i</code>th child of <code>node</code>, only if {@link #indexed}
+         */
+        int child(int node, int i) {
+            return buffer.getInt(node + CHILDREN + 4 * i);
+        }
+
+        String childPath(int node, int i) {
+            final int child = buffer.getInt(node + CHILDREN + 4 * i);
+            return indexed ? path(nodeOffset(child)) : string(child);
+        }
+
+        List<String> propertyNames(int node) {
+            final List<String> ret = new ArrayList<>();
+            int pos = properties(node);
+            for (int i = buffer.getInt(pos - 4); i > 0; i--) {
+                ret.add(string(buffer.getInt(pos)));
+                pos = next(pos);
+            }
+            return ret;
+        }
+
+        /**
+         * @return the value of the property <code>name</code> of <code>node</code>, null if it has none
+         */
+        @CheckForNull Object value(int node, String name) {
+            final byte[] key = name.getBytes(UTF_8);
+            int pos = properties(node);
+            for (int i = buffer.getInt(pos - 4); i > 0; i--) {
+                if (compare(buffer.getInt(pos), key) == 0) {
+                    return read(pos + 5, buffer.get(pos + 4));
+                }
+                pos = next(pos);
+            }
+            return null;
+        }
+
+        int nodeOffset(int index) {
+            return buffer.getInt(nodeIndex + 4 + 4 * index);
+        }
+
+        /**
+         * @param keep the paths of the nodes to decode, null for all
+         */
+        NavigableMap<String, Entry> decode(@CheckForNull Predicate<String> keep) {
+            final NavigableMap<String, Entry> entries = new TreeMap<>(PATH_ORDER);
+            for (int i = 0; i < size; i++) {
+                final int node = nodeOffset(i);
+                final String path = path(node);
+                if (keep != null && !keep.test(path)) {
+                    continue;
+                }
+                final Map<String, Object> properties = new LinkedHashMap<>();
+                for (String name : propertyNames(node)) {
+                    properties.put(name, value(node, name));
+                }
+                final List<String> children = new ArrayList<>(childCount(node));
+                for (int c = 0; c < childCount(node); c++) {
+                    children.add(childPath(node, c));
+                }
+                entries.put(path, new Entry(resourceType(node), properties, children));
+            }
+            return entries;
+        }
+
+        /**
+         * @param indexed whether to refer to the parent and children by index, for a segment of all the nodes
+         */
+        static Segment encode(String rootPath, NavigableMap<String, Entry> entries, boolean indexed) {
+            final Map<String, Integer> refs = new HashMap<>();
+            final List<byte[]> pool = new ArrayList<>();
+            final Map<String, Integer> indexes = new HashMap<>();
+            for (String path : entries.keySet()) {
+                indexes.put(path, indexes.size());
+            }
+            try {
+                final ByteArrayOutputStream nodeBytes = new ByteArrayOutputStream();
+                final DataOutputStream nodes = new DataOutputStream(nodeBytes);
+                final int[] offsets = new int[entries.size()];
+                int i = 0;
+                for (Map.Entry<String, Entry> node : entries.entrySet()) {
+                    offsets[i++] = nodes.size();
+                    final Entry entry = node.getValue();
+                    final String parentPath = ResourceUtil.getParent(node.getKey());
+                    final Integer parent = !indexed || node.getKey().equals(rootPath) || parentPath == null ? null : indexes.get(parentPath);
+                    final List<Integer> children = new ArrayList<>();
+                    for (String child : entry.children) {
+                        final Integer index = indexed ? indexes.get(child) : Integer.valueOf(ref(child, refs, pool));
+                        if (index != null) {
+                            children.add(index);
+                        }
+                    }
+                    nodes.writeInt(ref(node.getKey(), refs, pool));
+                    nodes.writeInt(entry.resourceType == null ? -1 : ref(entry.resourceType, refs, pool));
+                    nodes.writeInt(parent == null ? -1 : parent);
+                    nodes.writeInt(children.size());
+                    for (Integer child : children) {
+                        nodes.writeInt(child);
+                    }
+                    nodes.writeInt(entry.properties.size());
+                    for (Map.Entry<String, Object> property : entry.properties.entrySet()) {
+                        nodes.writeInt(ref(property.getKey(), refs, pool));
+                        write(property.getValue(), nodes, refs, pool);
+                    }
+                }
+                nodes.flush();
+
+                int poolSize = 0;
+                for (byte[] bytes : pool) {
+                    poolSize += 4 + bytes.length;
+                }
+                final int poolStart = 4 + 4 * pool.size() + 4;
+                final int nodeIndex = poolStart + poolSize;
+                final int nodeStart = nodeIndex + 4 + 4 * offsets.length;
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(nodeStart + nodeBytes.size());
+                buffer.putInt(pool.size());
+                int offset = poolStart;
+                for (byte[] bytes : pool) {
+                    buffer.putInt(offset);
+                    offset += 4 + bytes.length;
+                }
+                buffer.putInt(poolSize);
+                for (byte[] bytes : pool) {
+                    buffer.putInt(bytes.length).put(bytes);
+                }
+                buffer.putInt(offsets.length);
+                for (int node : offsets) {
+                    buffer.putInt(nodeStart + node);
+                }
+                buffer.put(nodeBytes.toByteArray());
+                return new Segment(buffer, indexed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return the offset of the 1st property of <code>node</code>, which follows the number of properties
+         */
+        private int properties(int node) {
+            return node + CHILDREN + 4 * childCount(node) + 4;
+        }
+
+        /**
+         * @return the offset of the property following the one at <code>pos</code>
+         */
+        private int next(int pos) {
+            switch (buffer.get(pos + 4)) {
+                case LONG:
+                case DOUBLE:
+                case DATE:
+                    return pos + 5 + 8;
+                case BOOLEAN:
+                    return pos + 5 + 1;
+                case STRINGS:
+                    return pos + 5 + 4 + 4 * buffer.getInt(pos + 5);
+                default:
+                    return pos + 5 + 4;
+            }
+        }
+
+        private Object read(int pos, byte tag) {
+            switch (tag) {
+                case LONG:
+                    return buffer.getLong(pos);
+                case DOUBLE:
+                    return buffer.getDouble(pos);
+                case BOOLEAN:
+                    return buffer.get(pos) != 0;
+                case DATE:
+                    final Calendar date = new GregorianCalendar();
+                    date.setTimeInMillis(buffer.getLong(pos));
+                    return date;
+                case STRINGS:
+                    final String[] values = new String[buffer.getInt(pos)];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = string(buffer.getInt(pos + 4 + 4 * i));
+                    }
+                    return values;
+                default:
+                    return string(buffer.getInt(pos));
+            }
+        }
+
+        private String string(int ref) {
+            final int offset = buffer.getInt(4 + 4 * ref);
+            final byte[] bytes = new byte[buffer.getInt(offset)];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(offset + 4);
+            view.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        /**
+         * Compare the UTF-8 bytes of the string <code>ref</code> with <code>key</code>, without decoding the string.
+         */
+        private int compare(int ref, byte[] key) {
+            final int offset = buffer.getInt(4 + 4 * ref);
+            final int length = buffer.getInt(offset);
+            final int n = Math.min(length, key.length);
+            for (int i = 0; i < n; i++) {
+                final int cmp = (buffer.get(offset + 4 + i) & 0xff) - (key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - key.length;
+        }
+    }
+
+    /** A node while a snapshot is being built */
+    private static final class Entry {
+        private final String resourceType;
+        private final Map<String, Object> properties;
+        private final List<String> children;
+
+        Entry(String resourceType, Map<String, Object> properties, List<String> children) {
+            this.resourceType = resourceType;
+            this.properties = properties;
+            this.children = children;
+        }
+
+        Entry(Resource resource) {
+            this(resource.getResourceType(), new LinkedHashMap<>(), new ArrayList<>());
+            for (Map.Entry<String, Object> property : resource.getValueMap().entrySet()) {
+                final Object value = snapshotValue(property.getValue());
+                if (value != null) {
+                    properties.put(property.getKey(), value);
+                }
+            }
+            for (Iterator<Resource> it = resource.listChildren(); it.hasNext();) {
+                children.add(it.next().getPath());
+            }
+        }
+    }
+
+}
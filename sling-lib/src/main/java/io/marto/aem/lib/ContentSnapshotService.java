@@ -0,0 +1,35 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Keeps a {@link ContentSnapshot} of each configured subtree up to date with the changes to it (OSGi Service).
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public interface ContentSnapshotService {
+
+    /**
+     * @param rootPath the root of a configured subtree
+     * @return the latest snapshot of the subtree, null if it isn't configured or its 1st snapshot hasn't been taken yet
+     */
+    @CheckForNull ContentSnapshot getSnapshot(String rootPath);
+}
@@ -0,0 +1,65 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+
+import lombok.Value;
+
+/**
+ * An immutable page of models returned by
+ * {@link TypedResourceResolver#pageModelChildren(String, String, Class, String, PageRequest) pageModelChildren}.
+ *
+ * @param <T> the type of model
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Value
+public class ModelPage<T> {
+
+    /** the unmodifiable models of the page */
+    private final List<T> models;
+    /** the request the page was returned for */
+    private final PageRequest request;
+    /** the number of children matching the request across all pages */
+    private final int total;
+
+    /**
+     * @return whether there are more models after this page
+     */
+    public boolean hasNext() {
+        return (long) request.getOffset() + request.getLimit() < total;
+    }
+
+    /**
+     * @return the request for the following page, null if this is the last one
+     */
+    public @CheckForNull PageRequest getNext() {
+        return hasNext() ? request.next() : null;
+    }
+
+    /**
+     * @return the token of the following page (see {@link PageRequest#fromToken(String)}), null if this is the last one
+     */
+    public @CheckForNull String getContinuationToken() {
+        return hasNext() ? request.next().toToken() : null;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.Resource;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * An immutable, reusable selection of models: the model class, the sling:resourceType its resources must match and,
+ * optionally, the parent path to look under and the sub path of the resource relative to it. The arguments are validated
+ * and the sub path split into its segments once, when the selector is built, rather than on every lookup - so build
+ * selectors of hot code paths once and keep them in constants.
+ *
+ * <h3>Example</h3>
+ * <pre><code>
+ * private static final ModelSelector&lt;Teaser&gt; TEASER = ModelSelector.of(Teaser.class, "my-project/components/teaser")
+ *     .withSubPath("jcr:content/teaser");
+ * ...
+ * resolver.findModel(page, TEASER);
+ * resolver.streamModelChildren(TEASER.under("/content/site/news"));
+ * </code></pre>
+ *
+ * @param <T> the type of model
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Getter
+@EqualsAndHashCode(of = { "klass", "slingResourceType", "parentPath", "subPath" })
+public final class ModelSelector<T> {
+
+    private static final String[] NO_SEGMENTS = new String[0];
+
+    /** the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resources to */
+    private final Class<T> klass;
+    /** the sling:resourceType the resources must match before they're adapted */
+    private final String slingResourceType;
+    /** the path to look under, null if not set */
+    private final @CheckForNull String parentPath;
+    /** the relative path of the resources to the resources looked at (eg: "jcr:content"), null if not set */
+    private final @CheckForNull String subPath;
+
+    @Getter(AccessLevel.NONE)
+    private final String[] segments;
+    @Getter(AccessLevel.NONE)
+    private final String suffix;
+
+    private ModelSelector(Class<T> klass, String slingResourceType, String parentPath, String subPath) {
+        this.klass = klass;
+        this.slingResourceType = slingResourceType;
+        this.parentPath = parentPath;
+        this.subPath = subPath;
+        this.segments = subPath == null ? NO_SEGMENTS : subPath.split("/");
+        this.suffix = subPath == null ? "" : "/" + subPath;
+    }
+
+    /**
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resources to
+     * @param slingResourceType the sling:resourceType the resources must match before they're adapted
+     * @param <T> the <code>klass</code> type of the model
+     * @return a selector of the models of the resources looked at
+     */
+    public static @Nonnull <T> ModelSelector<T> of(Class<T> klass, String slingResourceType) {
+        if (klass == null || isBlank(slingResourceType)) {
+            throw new IllegalArgumentException();
+        }
+        return new ModelSelector<>(klass, slingResourceType, null, null);
+    }
+
+    /**
+     * @param path the path to look under
+     * @return a copy of this selector that looks under <code>path</code>
+     */
+    public @Nonnull ModelSelector<T> under(String path) {
+        if (isBlank(path)) {
+            throw new IllegalArgumentException();
+        }
+        return new ModelSelector<>(klass, slingResourceType, path, subPath);
+    }
+
+    /**
+     * @param path the relative path of the resources to the resources looked at (eg: "jcr:content")
+     * @return a copy of this selector that selects the resources at <code>path</code>
+     */
+    public @Nonnull ModelSelector<T> withSubPath(String path) {
+        if (isBlank(path) || path.startsWith("/")) {
+            throw new IllegalArgumentException("Not a relative path: " + path);
+        }
+        return new ModelSelector<>(klass, slingResourceType, parentPath, path);
+    }
+
+    /**
+     * @param resource the resource looked at
+     * @return the resource at the sub path of <code>resource</code>, null if there isn't one
+     */
+    public @CheckForNull Resource resolve(@CheckForNull Resource resource) {
+        Resource ret = resource;
+        for (int i = 0; ret != null && i < segments.length; i++) {
+            ret = ret.getChild(segments[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * @param path the path of the resource looked at
+     * @return the path of the resource at the sub path of <code>path</code>
+     */
+    public @Nonnull String resolve(String path) {
+        return suffix.isEmpty() ? path : path + suffix;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ModelSelector[klass=%s, slingResourceType=%s, parentPath=%s, subPath=%s]", klass.getName(),
+            slingResourceType, parentPath, subPath);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Base64;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * An immutable request for a page of models, for
+ * {@link TypedResourceResolver#pageModelChildren(String, String, Class, String, PageRequest) pageModelChildren}.
+ *
+ * <h3>Example</h3>
+ * <pre><code>
+ * PageRequest.of(0, 20).sortedBy("jcr:created", true)
+ * PageRequest.fromToken(request.getParameter("page"))
+ * </code></pre>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class PageRequest {
+
+    private static final String TOKEN_VERSION = "1";
+    private static final String TOKEN_SEPARATOR = "|";
+
+    /** the number of models to skip */
+    private final int offset;
+    /** the maximum number of models in the page */
+    private final int limit;
+    /** the property of the model's resource to sort by, null to keep repository order */
+    private final @CheckForNull String sortProperty;
+    /** whether to sort by <code>sortProperty</code> in descending order */
+    private final boolean descending;
+
+    /**
+     * @param offset the number of models to skip
+     * @param limit the maximum number of models in the page
+     * @return a request for a page of models in repository order
+     */
+    public static @Nonnull PageRequest of(int offset, int limit) {
+        if (offset < 0 || limit < 1) {
+            throw new IllegalArgumentException(String.format("Invalid page offset=%d, limit=%d", offset, limit));
+        }
+        return new PageRequest(offset, limit, null, false);
+    }
+
+    /**
+     * @param token a token from {@link ModelPage#getContinuationToken()} or {@link #toToken()}
+     * @return the page request of the token
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static @Nonnull PageRequest fromToken(String token) {
+        final String[] fields;
+        try {
+            fields = new String(Base64.getUrlDecoder().decode(token), UTF_8).split("\\" + TOKEN_SEPARATOR, 5);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Malformed page token: " + token, e);
+        }
+        if (fields.length != 5 || !TOKEN_VERSION.equals(fields[0])) {
+            throw new IllegalArgumentException("Malformed page token: " + token);
+        }
+        final int offset;
+        final int limit;
+        try {
+            offset = Integer.parseInt(fields[1]);
+            limit = Integer.parseInt(fields[2]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed page token: " + token, e);
+        }
+        if (offset < 0 || limit < 1) {
+            throw new IllegalArgumentException("Malformed page token: " + token);
+        }
+        final PageRequest page = new PageRequest(offset, limit, null, false);
+        return fields[4].isEmpty() ? page : page.sortedBy(fields[4], Boolean.parseBoolean(fields[3]));
+    }
+
+    /**
+     * @param property the property of the model's resource to sort by; resources without it come last
+     * @param descending whether to sort in descending order
+     * @return a request for the same page of models in the order of <code>property</code>
+     */
+    public @Nonnull PageRequest sortedBy(String property, boolean descending) {
+        if (property == null || property.isEmpty()) {
+            throw new IllegalArgumentException("sort property must not be empty");
+        }
+        return new PageRequest(offset, limit, property, descending);
+    }
+
+    /**
+     * @return a request for the page following this one, the offset is capped at {@link Integer#MAX_VALUE}
+     */
+    public @Nonnull PageRequest next() {
+        return new PageRequest((int) Math.min(Integer.MAX_VALUE, (long) offset + limit), limit, sortProperty, descending);
+    }
+
+    /**
+     * @return an opaque, URL safe token of this request
+     */
+    public @Nonnull String toToken() {
+        final String token = TOKEN_VERSION + TOKEN_SEPARATOR + offset + TOKEN_SEPARATOR + limit + TOKEN_SEPARATOR + descending
+            + TOKEN_SEPARATOR + (sortProperty == null ? "" : sortProperty);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(UTF_8));
+    }
+}
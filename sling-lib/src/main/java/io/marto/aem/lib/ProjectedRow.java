@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * The values of the properties of a {@link Projection} read from a resource. A row holds no reference to the resource or
+ * its resolver, so it may outlive them; its values are indexed in the order of the projection.
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public final class ProjectedRow {
+
+    private final Projection projection;
+    private final String path;
+    private final Object[] values;
+
+    ProjectedRow(Projection projection, String path, Object[] values) {
+        this.projection = projection;
+        this.path = path;
+        this.values = values;
+    }
+
+    /**
+     * @return the projection the row was read with
+     */
+    public @Nonnull Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return the path of the resource the row was read from
+     */
+    public @Nonnull String getPath() {
+        return path;
+    }
+
+    /**
+     * @param index the index of a property of the projection
+     * @return the value of the property, null if the resource doesn't have it
+     */
+    public @CheckForNull Object get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @param name the name of a property of the projection
+     * @return the value of the property, null if the resource doesn't have it
+     * @throws IllegalArgumentException if the property isn't projected
+     */
+    public @CheckForNull Object get(String name) {
+        final int index = projection.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException(name + " isn't in " + projection);
+        }
+        return values[index];
+    }
+
+    /**
+     * @param index the index of a property of the projection
+     * @return the value of the property as a String, null if the resource doesn't have it
+     */
+    public @CheckForNull String getString(int index) {
+        final Object value = values[index];
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * @param index the index of a property of the projection
+     * @param defaultValue the value to return if the resource doesn't have the property or it isn't a number
+     * @return the value of the property as a long
+     */
+    public long getLong(int index, long defaultValue) {
+        final Object value = values[index];
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * @param index the index of a property of the projection
+     * @param defaultValue the value to return if the resource doesn't have the property or it isn't a boolean
+     * @return the value of the property as a boolean
+     */
+    public boolean getBoolean(int index, boolean defaultValue) {
+        final Object value = values[index];
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    /**
+     * @return the values of the row by property name, for i.e. serializing the row
+     */
+    public @Nonnull Map<String, Object> toMap() {
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            ret.put(projection.getName(i), values[i]);
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectedRow[path=" + path + ", " + toMap() + "]";
+    }
+}
@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+/**
+ * A sink for the measurements taken by the {@link TypedResourceResolverFactory} and {@link ResourceUtils} (OSGi Service,
+ * whiteboard). Register an implementation to forward the measurements to a metrics library; none are taken while
+ * no sink is registered, or instrumentation is disabled.
+ * <p>
+ * Implementations are called inline on the measured threads, so they must be thread safe, cheap and must not throw.
+ * </p>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public interface RepositoryMetrics {
+
+    /**
+     * @param subService the "Sub Service" logged in as
+     * @param nanos how long the login took
+     * @param success whether the login succeeded
+     */
+    void loggedIn(String subService, long nanos, boolean success);
+
+    /**
+     * @param subService the "Sub Service" of the resolver
+     * @param hit whether an idle pooled resolver was reused rather than a new one logged in
+     */
+    void pooled(String subService, boolean hit);
+
+    /**
+     * A resolver was handed out by {@link TypedResourceResolverFactory#getSubServiceResolver(String)}.
+     *
+     * @param subService the "Sub Service" of the resolver
+     */
+    void opened(String subService);
+
+    /**
+     * A resolver handed out by {@link TypedResourceResolverFactory#getSubServiceResolver(String)} was closed.
+     *
+     * @param subService the "Sub Service" of the resolver
+     */
+    void closed(String subService);
+
+    /**
+     * A resolver handed out by {@link TypedResourceResolverFactory#getSubServiceResolver(String)} was found still open
+     * past its allowed lifetime. This is only reported while resolver tracking is enabled.
+     *
+     * @param subService the "Sub Service" of the resolver
+     */
+    void leaked(String subService);
+
+    /**
+     * @param subService the "Sub Service" the task ran as
+     * @param nanos how long the task ran for, excluding the login
+     * @param success whether the task returned normally
+     */
+    void executed(String subService, long nanos, boolean success);
+
+    /**
+     * @param klass the model class adapted to by {@link ResourceUtils#adapt(org.apache.sling.api.resource.Resource, Class, String)}
+     * @param nanos how long the adaptation took
+     * @param success whether the adaptation returned a model
+     */
+    void adapted(Class<?> klass, long nanos, boolean success);
+}
@@ -0,0 +1,311 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import io.marto.aem.lib.impl.ParallelTreeWalker;
+
+/**
+ * A lazy traversal of a tree of {@link Resource resources}, created by {@link ResourceUtils#traverse(Resource)}.
+ * Resources are only read from the repository as the traversal is consumed, so stopping early (i.e.
+ * {@link #first()} or {@link Stream#findFirst()}) doesn't read the rest of the tree.
+ *
+ * <h3>Example</h3>
+ * <pre><code>
+ * ResourceUtils.traverse(page.getContentResource())
+ *     .maxDepth(5)
+ *     .prune(res -&gt; res.isResourceType("nt:file"))
+ *     .ofType("my-project/components/content/image")
+ *     .stream()
+ *     .limit(10)
+ *     ...
+ * </code></pre>
+ *
+ * <p>
+ * The {@link #depthFirst() depth first} order (the default) holds one child iterator per level, so its memory grows with
+ * the depth of the tree. The {@link #breadthFirst() breadth first} order has to hold a whole level of the tree.
+ * </p>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public class ResourceTraversal implements Iterable<Resource> {
+
+    private final Resource root;
+    private boolean depthFirst = true;
+    private int maxDepth = Integer.MAX_VALUE;
+    private Predicate<? super Resource> prune = res -> false;
+    private Predicate<? super Resource> filter = res -> true;
+    private int parallelism = 1;
+
+    ResourceTraversal(@CheckForNull Resource root) {
+        this.root = root;
+    }
+
+    /**
+     * Visit resources in depth first (pre-order) order. This is the default.
+     *
+     * @return this traversal
+     */
+    public ResourceTraversal depthFirst() {
+        depthFirst = true;
+        return this;
+    }
+
+    /**
+     * Visit resources level by level.
+     *
+     * @return this traversal
+     */
+    public ResourceTraversal breadthFirst() {
+        depthFirst = false;
+        return this;
+    }
+
+    /**
+     * @param depth the maximum depth to descend to, where the root is at depth 0 and its children at depth 1
+     * @return this traversal
+     */
+    public ResourceTraversal maxDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        maxDepth = depth;
+        return this;
+    }
+
+    /**
+     * @param predicate the resources whose children should not be visited. A pruned resource is still visited itself.
+     * @return this traversal
+     */
+    public ResourceTraversal prune(Predicate<? super Resource> predicate) {
+        final Predicate<? super Resource> current = prune;
+        prune = res -> current.test(res) || predicate.test(res);
+        return this;
+    }
+
+    /**
+     * @param predicate the resources to return. Resources that don't match are still descended into.
+     * @return this traversal
+     */
+    public ResourceTraversal filter(Predicate<? super Resource> predicate) {
+        final Predicate<? super Resource> current = filter;
+        filter = res -> current.test(res) && predicate.test(res);
+        return this;
+    }
+
+    /**
+     * @param slingResourceType the sling resource type the returned resources must be of
+     * @return this traversal
+     */
+    public ResourceTraversal ofType(String slingResourceType) {
+        return filter(res -> ResourceUtils.isResourceType(res, slingResourceType));
+    }
+
+    /**
+     * Walk the tree on <code>parallelism</code> threads when it is collected by {@link #toList()}. Each thread reads the
+     * tree through its own clone of the resolver of the root, so the predicates of this traversal must be thread safe.
+     * This is meant for wide trees, where it pays off the cost of cloning resolvers.
+     *
+     * @param parallelism the maximum number of threads to walk the tree on, 1 to walk it on the calling thread
+     * @return this traversal
+     */
+    public ResourceTraversal parallel(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Collect all the matching resources. A {@link #parallel(int) parallel} traversal always returns them in depth first
+     * order.
+     *
+     * @return the matching resources, of the resolver of the root
+     * @throws RepositoryLoginException if the resolver of the root can't be cloned for a parallel traversal
+     */
+    public @Nonnull List<Resource> toList() throws RepositoryLoginException {
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        if (parallelism == 1) {
+            final List<Resource> ret = new ArrayList<>();
+            forEach(ret::add);
+            return ret;
+        }
+        final Predicate<? super Resource> matches = filter;
+        final List<String> paths = new ParallelTreeWalker<String>(parallelism, maxDepth, prune, res -> matches.test(res) ? res.getPath() : null)
+            .walk(root);
+        final ResourceResolver resolver = root.getResourceResolver();
+        final List<Resource> ret = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            final Resource res = resolver.getResource(path);
+            if (res != null) {
+                ret.add(res);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the 1st matching resource, <code>null</code> if none found. Nothing after it is read.
+     */
+    public @CheckForNull Resource first() {
+        final Iterator<Resource> it = iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * @return a lazy, sequential stream of the matching resources
+     */
+    public @Nonnull Stream<Resource> stream() {
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    @Override
+    public @Nonnull Iterator<Resource> iterator() {
+        if (root == null) {
+            return Collections.emptyIterator();
+        }
+        return depthFirst ? new DepthFirst(root, maxDepth, prune, filter) : new BreadthFirst(root, maxDepth, prune, filter);
+    }
+
+    private abstract static class Traversal implements Iterator<Resource> {
+        private final Predicate<? super Resource> filter;
+        private Resource next;
+
+        Traversal(Predicate<? super Resource> filter) {
+            this.filter = filter;
+        }
+
+        /**
+         * @return the next resource in traversal order, null if there are no more
+         */
+        abstract Resource visit();
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                final Resource res = visit();
+                if (res == null) {
+                    return false;
+                }
+                if (filter.test(res)) {
+                    next = res;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Resource ret = next;
+            next = null;
+            return ret;
+        }
+    }
+
+    private static final class DepthFirst extends Traversal {
+        private final int maxDepth;
+        private final Predicate<? super Resource> prune;
+        private final Deque<Iterator<Resource>> path = new ArrayDeque<>();
+        private Resource root;
+
+        DepthFirst(Resource root, int maxDepth, Predicate<? super Resource> prune, Predicate<? super Resource> filter) {
+            super(filter);
+            this.root = root;
+            this.maxDepth = maxDepth;
+            this.prune = prune;
+        }
+
+        @Override
+        Resource visit() {
+            Resource res = root;
+            root = null;
+            while (res == null && !path.isEmpty()) {
+                final Iterator<Resource> children = path.peek();
+                if (children.hasNext()) {
+                    res = children.next();
+                } else {
+                    path.pop();
+                }
+            }
+            if (res != null && path.size() < maxDepth && !prune.test(res)) {
+                path.push(res.listChildren());
+            }
+            return res;
+        }
+    }
+
+    private static final class BreadthFirst extends Traversal {
+        private final int maxDepth;
+        private final Predicate<? super Resource> prune;
+        private final Deque<Resource> level = new ArrayDeque<>();
+        private final Deque<Integer> depths = new ArrayDeque<>();
+
+        BreadthFirst(Resource root, int maxDepth, Predicate<? super Resource> prune, Predicate<? super Resource> filter) {
+            super(filter);
+            this.maxDepth = maxDepth;
+            this.prune = prune;
+            level.add(root);
+            depths.add(0);
+        }
+
+        @Override
+        Resource visit() {
+            final Resource res = level.poll();
+            if (res == null) {
+                return null;
+            }
+            final int depth = depths.poll();
+            if (depth < maxDepth && !prune.test(res)) {
+                for (Iterator<Resource> it = res.listChildren(); it.hasNext();) {
+                    final Resource child = it.next();
+                    if (child != null) {
+                        level.add(child);
+                        depths.add(depth + 1);
+                    }
+                }
+            }
+            return res;
+        }
+    }
+}
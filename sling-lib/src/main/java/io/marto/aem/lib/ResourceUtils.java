@@ -20,10 +20,13 @@ package io.marto.aem.lib;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.sling.api.resource.Resource;
@@ -31,6 +34,9 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.marto.aem.lib.impl.Instrumentation;
+import io.marto.aem.lib.impl.ResourceTypeCache;
+import io.marto.aem.lib.impl.ResourceTypeIndex;
 import io.marto.aem.lib.impl.TypedResourceResolverImpl;
 
 //import com.day.cq.wcm.api.Page;
@@ -92,13 +98,15 @@ public class ResourceUtils {
             throw new NullPointerException();
         }
         if (resource != null) {
-            if (resource.isResourceType(slingResourceType)) {
+            if (isResourceType(resource, slingResourceType)) {
+                final long start = Instrumentation.start();
                 T ret = resource.adaptTo(klass);
-                if (ret == null) {
+                Instrumentation.recordAdapt(start, resource, klass, ret);
+                if (ret == null && LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Failed to adapt path={} to class={} (type={})", resource.getPath(), klass.getSimpleName(), slingResourceType);
                 }
                 return ret;
-            } else {
+            } else if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug(
                     "Failed to adapt path={} to model class={} because resourceType={} is not of expected type={}",
                     resource.getPath(), klass.getSimpleName(), resource.getResourceType(), slingResourceType);
@@ -107,6 +115,18 @@ public class ResourceUtils {
         return null;
     }
 
+    /**
+     * A null safe equivalent of {@link Resource#isResourceType(String)} that answers from a cache of the resolved
+     * <code>sling:resourceSuperType</code> ancestry of resource types instead of walking the super type chain in the repository.
+     *
+     * @param resource the resource to check
+     * @param slingResourceType the sling resource type the resource must be of, or have as a super type
+     * @return whether <code>resource</code> is of <code>slingResourceType</code>; false if either is null
+     */
+    public static boolean isResourceType(@Nullable Resource resource, @Nullable String slingResourceType) {
+        return ResourceTypeCache.isResourceType(resource, slingResourceType);
+    }
+
 // TODO Move to a PageUtils helper class
 //    /**
 //     * A Depth First Search to find a resource of <code>type</code> on a page.
@@ -123,32 +143,79 @@ public class ResourceUtils {
 //    }
 
     /**
-     * A Depth First Search to find a resource of <code>type</code>. You should never call this on a page. Call it on page.getConentResource().
+     * A Breadth First Search to find a resource of <code>type</code>. You should never call this on a page. Call it on page.getConentResource().
      *
      * @param resource the root of the search tree (i.e. jcr:content resource)
      * @param type  the type of resource to find
      * @return the 1st child resource of type <code>type</code>, <code>null</code> if none found
+     * @see #traverse(Resource)
      */
     public static Resource find1stChildResource(Resource resource, String type) {
+        return traverse(resource).breadthFirst().ofType(type).first();
+    }
+
+    /**
+     * Stream the descendants of <code>resource</code> of exactly <code>slingResourceType</code> (resources of its sub
+     * types aren't found). When the {@link ResourceTypeIndex resource type index} covers <code>resource</code>, this is
+     * a range scan of the index, in path order, and the paths found are resolved with the resolver of
+     * <code>resource</code> so that resources it can't read are left out. Otherwise the tree is walked depth first.
+     *
+     * @param resource the root of the search tree, which isn't included itself. May be null.
+     * @param slingResourceType the sling resource type of the resources to find
+     * @return a lazy stream of the descendants found, an empty one if <code>resource</code> is null
+     */
+    public static @Nonnull Stream<Resource> streamDescendants(@Nullable Resource resource, String slingResourceType) {
+        if (isBlank(slingResourceType)) {
+            throw new IllegalArgumentException();
+        }
         if (resource == null) {
-            return null;
+            return Stream.empty();
         }
-        final ResourceResolver resolver = resource.getResourceResolver();
-        final Queue<Resource> stack = new LinkedList<>();
-        stack.add(resource);
-        while (!stack.isEmpty()) {
-            Resource res = stack.poll();
-            if (resolver.isResourceType(res, type)) {
-                return res;
-            } else {
-                for (Resource child : res.getChildren()) {
-                    if (child != null) {
-                        stack.add(child);
-                    }
-                }
-            }
+        final Collection<String> indexed = ResourceTypeIndex.descendants(resource.getPath(), slingResourceType);
+        if (indexed == null) {
+            return traverse(resource).filter(res -> res != resource && slingResourceType.equals(res.getResourceType())).stream();
         }
-        return null;
+        final ResourceResolver resolver = resource.getResourceResolver();
+        return indexed.stream()
+            .map(resolver::getResource)
+            // the index may lag behind a change of type
+            .filter(res -> res != null && slingResourceType.equals(res.getResourceType()));
+    }
+
+    /**
+     * Find the descendants of <code>resource</code> of exactly <code>slingResourceType</code>.
+     *
+     * @param resource the root of the search tree, which isn't included itself. May be null.
+     * @param slingResourceType the sling resource type of the resources to find
+     * @return the descendants found, an empty list if <code>resource</code> is null
+     * @see #streamDescendants(Resource, String)
+     */
+    public static @Nonnull List<Resource> findDescendants(@Nullable Resource resource, String slingResourceType) {
+        return streamDescendants(resource, slingResourceType).collect(Collectors.toList());
+    }
+
+    /**
+     * Find the 1st descendant of <code>resource</code> of exactly <code>slingResourceType</code>: the 1st in path order
+     * when it is answered from the index, or in depth first order otherwise.
+     *
+     * @param resource the root of the search tree, which isn't included itself. May be null.
+     * @param slingResourceType the sling resource type of the resource to find
+     * @return the descendant found, null if none found
+     * @see #streamDescendants(Resource, String)
+     */
+    public static @CheckForNull Resource findFirstDescendant(@Nullable Resource resource, String slingResourceType) {
+        return streamDescendants(resource, slingResourceType).findFirst().orElse(null);
+    }
+
+    /**
+     * Start a lazy traversal of the tree rooted at <code>resource</code>. See {@link ResourceTraversal} on how to control the
+     * order, depth and pruning of the traversal.
+     *
+     * @param resource the root of the tree to traverse, which is included in the traversal. May be null.
+     * @return the traversal; an empty one if <code>resource</code> is null
+     */
+    public static @Nonnull ResourceTraversal traverse(@Nullable Resource resource) {
+        return new ResourceTraversal(resource);
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TypedResourceResolverImpl.class);
@@ -0,0 +1,92 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.function.Supplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * A bounded cache of {@link CacheableModel immutable models} shared across resolvers and requests (OSGi Service).
+ * <p>
+ * Entries are partitioned (i.e. by "Sub Service" or user) so that models loaded with one set of access rights are never
+ * handed out to another. Entries are evicted when a resource at, above or below their path changes, and otherwise by
+ * least recent use and age.
+ * </p>
+ * <p>
+ * Lookups that found no model (the resource doesn't exist, isn't of the resource type or can't be adapted) can be
+ * remembered as misses, so that i.e. optional or fallback paths aren't looked up again until a resource at, above or
+ * below them is added or changed. Misses are kept for models of any class, not just {@link CacheableModel cacheable} ones.
+ * </p>
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public interface SharedModelCache {
+
+    /**
+     * Get a model from the cache, or load and cache it.
+     *
+     * @param partition the access rights partition (i.e. the "Sub Service") the model is loaded with
+     * @param path the path of the resource the model is adapted from
+     * @param klass the class of the model
+     * @param slingResourceType the sling:resourceType the resource must match
+     * @param loader loads the model when it's not cached; a null result is remembered as a miss
+     * @param <T> the <code>klass</code> type of the model
+     *
+     * @return the cached or loaded model, null if <code>loader</code> returned null (now or for a remembered miss)
+     */
+    @CheckForNull <T> T get(String partition, String path, Class<T> klass, String slingResourceType, Supplier<T> loader);
+
+    /**
+     * Load a model that isn't {@link CacheableModel cacheable}, unless it's a remembered miss. Only misses are cached.
+     *
+     * @param partition the access rights partition (i.e. the "Sub Service") the model is loaded with
+     * @param path the path of the resource the model is adapted from
+     * @param klass the class of the model
+     * @param slingResourceType the sling:resourceType the resource must match
+     * @param loader loads the model; a null result is remembered as a miss
+     * @param <T> the <code>klass</code> type of the model
+     *
+     * @return the loaded model, null if <code>loader</code> returned null (now or for a remembered miss)
+     */
+    @CheckForNull <T> T find(String partition, String path, Class<T> klass, String slingResourceType, Supplier<T> loader);
+
+    /**
+     * Evict the entries of all partitions at, above or below <code>path</code>.
+     *
+     * @param path the absolute path of the content that changed
+     */
+    void invalidate(String path);
+
+    /**
+     * Evict all entries.
+     */
+    void clear();
+
+    /**
+     * @return the statistics of the cache
+     */
+    @Nonnull CacheStats getStats();
+
+    /**
+     * @return the statistics of the remembered misses
+     */
+    @Nonnull CacheStats getMissStats();
+}
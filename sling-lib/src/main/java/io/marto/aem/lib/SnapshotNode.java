@@ -0,0 +1,189 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import java.util.Calendar;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * A node of a {@link ContentSnapshot}: a handle on its buffer that decodes values as they are read. Values are read
+ * as they were stored, or converted where that is lossless (i.e. {@link #getString(String)} of a long); a value that
+ * can't be converted reads as null.
+ *
+ * @author Martin Petrovsky (martin at marto.io).
+ */
+public final class SnapshotNode {
+
+    private final ContentSnapshot snapshot;
+    /** The base or overlay of the snapshot the node is in */
+    private final ContentSnapshot.Segment segment;
+    private final int node;
+
+    SnapshotNode(ContentSnapshot snapshot, ContentSnapshot.Segment segment, int node) {
+        this.snapshot = snapshot;
+        this.segment = segment;
+        this.node = node;
+    }
+
+    /**
+     * @return the path of the resource the node was read from
+     */
+    public @Nonnull String getPath() {
+        return segment.path(node);
+    }
+
+    /**
+     * @return the name of the resource the node was read from
+     */
+    public @Nonnull String getName() {
+        final String path = getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return the sling resource type of the resource the node was read from
+     */
+    public @CheckForNull String getResourceType() {
+        return segment.resourceType(node);
+    }
+
+    /**
+     * @return the parent node, null for the root of the snapshot
+     */
+    public @CheckForNull SnapshotNode getParent() {
+        return snapshot.parent(segment, node);
+    }
+
+    /**
+     * @return the child nodes in repository order
+     */
+    public @Nonnull List<SnapshotNode> getChildren() {
+        return snapshot.children(segment, node);
+    }
+
+    /**
+     * @param name the name of a child
+     * @return the child node, null if there's none
+     */
+    public @CheckForNull SnapshotNode getChild(String name) {
+        return snapshot.getNode(getPath() + "/" + name);
+    }
+
+    /**
+     * @return the names of the properties of the node
+     */
+    public @Nonnull List<String> getPropertyNames() {
+        return segment.propertyNames(node);
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the value of the property: a String, Long, Double, Boolean, Calendar or String[]; null if the node has none
+     */
+    public @CheckForNull Object get(String name) {
+        return segment.value(node, name);
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the value of the property as a string, the 1st value of a multi valued property
+     */
+    public @CheckForNull String getString(String name) {
+        final Object value = get(name);
+        if (value instanceof String[]) {
+            final String[] values = (String[]) value;
+            return values.length == 0 ? null : values[0];
+        }
+        return value == null || value instanceof Calendar ? null : value.toString();
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the values of the property as strings, a single value as an array of one
+     */
+    public @CheckForNull String[] getStrings(String name) {
+        final Object value = get(name);
+        if (value == null || value instanceof String[]) {
+            return (String[]) value;
+        }
+        final String string = getString(name);
+        return string == null ? null : new String[] { string };
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the value of a long property, or of a string property that is a long
+     */
+    public @CheckForNull Long getLong(String name) {
+        final Object value = get(name);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        try {
+            return value instanceof String ? Long.valueOf((String) value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the value of a double or long property, or of a string property that is a number
+     */
+    public @CheckForNull Double getDouble(String name) {
+        final Object value = get(name);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return value instanceof String ? Double.valueOf((String) value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the value of a boolean property, or of a string property that is "true" or "false"
+     */
+    public @CheckForNull Boolean getBoolean(String name) {
+        final Object value = get(name);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return "true".equals(value) || "false".equals(value) ? Boolean.valueOf((String) value) : null;
+    }
+
+    /**
+     * @param name the name of a property
+     * @return the value of a date property
+     */
+    public @CheckForNull Calendar getDate(String name) {
+        final Object value = get(name);
+        return value instanceof Calendar ? (Calendar) value : null;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotNode(" + getPath() + ")";
+    }
+}
@@ -18,9 +18,13 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 */
 package io.marto.aem.lib;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
+import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 
 /**
@@ -50,6 +54,57 @@ public interface TypedResourceResolver extends ResourceResolver {
      */
     <T> T findModel(String path, Class<T> klass, String slingResourceType);
 
+    /**
+     * The {@link ModelSelector} equivalent of {@link #findModel(String, Class, String) findModel}.
+     *
+     * @param selector the model to find, at the sub path (if any) of its parent path
+     * @param <T> the type of the model
+     *
+     * @return the model object, null if the resource can't be located or is of wrong type.
+     * @throws IllegalArgumentException if <code>selector</code> has no parent path
+     */
+    <T> T findModel(ModelSelector<T> selector);
+
+    /**
+     * The {@link ModelSelector} equivalent of {@link #findModel(String, Class, String) findModel} relative to a resource,
+     * i.e. a page's model of its <code>jcr:content</code>. This doesn't build paths unless the lookup is memoized or shared.
+     *
+     * @param resource the resource looked at, which may be null
+     * @param selector the model to find at the sub path (if any) of <code>resource</code>; its parent path is ignored
+     * @param <T> the type of the model
+     *
+     * @return the model object, null if <code>resource</code> is null, or the resource can't be located or is of wrong type.
+     */
+    <T> T findModel(Resource resource, ModelSelector<T> selector);
+
+    /**
+     * A batch equivalent of {@link #findModel(String, Class, String) findModel} that looks up many <code>paths</code> at
+     * once. Duplicate paths are only looked up once, and paths are looked up grouped by their parent for better
+     * repository locality.
+     *
+     * @param paths the absolute paths to the resource objects to be loaded.
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) Adaptable#adaptTo(klass)} the resources to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resources must match before they're adapted to T
+     *
+     * @return a {@link List} with the model of each path in the order of <code>paths</code>, where an element is null if
+     *         the resource can't be located at that path or is of wrong type.
+     */
+    <T> List<T> findModels(Collection<String> paths, Class<T> klass, String slingResourceType);
+
+    /**
+     * The same as {@link #findModels(Collection, Class, String) findModels} but keyed by path.
+     *
+     * @param paths the absolute paths to the resource objects to be loaded.
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) Adaptable#adaptTo(klass)} the resources to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resources must match before they're adapted to T
+     *
+     * @return an unmodifiable {@link Map} of path to model, in the order of <code>paths</code>, of the paths a model was
+     *         found for
+     */
+    <T> Map<String, T> findModelMap(Collection<String> paths, Class<T> klass, String slingResourceType);
+
     /**
      * This is synonymous to ls (list dir contents) to list a set of models of <code>Class T</code> located at
      * at <code>base</code> path location.
@@ -79,4 +134,149 @@ public interface TypedResourceResolver extends ResourceResolver {
      */
     <T> Stream<T> streamModelChildren(String parentPath, String subPath, Class<T> klass, String slingResourceType);
 
+    /**
+     * The {@link ModelSelector} equivalent of {@link #listModelChildren(String, String, Class, String) listModelChildren}.
+     *
+     * @param selector the models to list, at the sub path (if any) of each child of its parent path
+     * @param <T> the type of the model
+     *
+     * @return a {@link List} of <code>T</code> found, or an empty list if none found
+     * @throws IllegalArgumentException if <code>selector</code> has no parent path
+     */
+    <T> List<T> listModelChildren(ModelSelector<T> selector);
+
+    /**
+     * The {@link ModelSelector} equivalent of {@link #streamModelChildren(String, String, Class, String) streamModelChildren}.
+     *
+     * @param selector the models to stream, at the sub path (if any) of each child of its parent path
+     * @param <T> the type of the model
+     *
+     * @return a {@link Stream} of <code>T</code> found, or an empty stream if none found
+     * @throws IllegalArgumentException if <code>selector</code> has no parent path
+     */
+    <T> Stream<T> streamModelChildren(ModelSelector<T> selector);
+
+    /**
+     * A light weight alternative to {@link #findModel(String, Class, String) findModel} that reads the properties of a
+     * {@link Projection} straight from the resource's value map rather than adapting it to a model.
+     *
+     * @param path the absolute path to the resource object to be read.
+     * @param slingResourceType the sling:resourceType the resource at the given path must match before it's read
+     * @param projection the properties to read
+     *
+     * @return the row of the properties, null if the resource can't be located at the given path or is of wrong type.
+     */
+    ProjectedRow findProjection(String path, String slingResourceType, Projection projection);
+
+    /**
+     * A light weight alternative to {@link #streamModelChildren(String, String, Class, String) streamModelChildren}
+     * that reads the properties of a {@link Projection} straight from the value map of each child's resource rather than
+     * adapting it to a model.
+     *
+     * @param parentPath  the parentPath location of the resources to read
+     * @param subPath the relative path to each child to find the resource (eg: "jcr:content"), null to read the children
+     * @param slingResourceType the sling:resourceType the resources must match before they're read
+     * @param projection the properties to read
+     *
+     * @return a {@link Stream} of the rows of the properties in repository order, or an empty stream if none found
+     */
+    Stream<ProjectedRow> streamProjectedChildren(String parentPath, String subPath, String slingResourceType, Projection projection);
+
+    /**
+     * A page of {@link #streamModelChildren(String, String, Class, String) streamModelChildren}, for listing very wide
+     * trees. All children are type checked to count and order them, but only those of the requested page are adapted.
+     * When sorted by a property, only <code>offset + limit</code> children are held at a time rather than all of them;
+     * children without the property come last, and children that are equal keep their repository order.
+     * <p>
+     * A child that turns out not to adapt to <code>klass</code> is left out of its page, so a page may hold fewer
+     * than <code>limit</code> models even when it isn't the last one.
+     * </p>
+     *
+     * @param parentPath  the parentPath location of the resources to list
+     * @param subPath the relative path to the parentPath to find the resource (eg: "jcr:content")
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resource to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resource at the given path and subPath must match before it's adapted to T
+     * @param page the offset, limit and order of the page
+     *
+     * @return the page of models, which is empty if none found
+     */
+    <T> ModelPage<T> pageModelChildren(String parentPath, String subPath, Class<T> klass, String slingResourceType, PageRequest page);
+
+    /**
+     * Search the descendants of <code>basePath</code> of exactly <code>slingResourceType</code> (resources of its sub types
+     * aren't found) whose <code>properties</code> have the given values. Small subtrees are walked, while larger ones are
+     * searched by an indexed JCR-SQL2 query, so the cost of a search follows the number of results rather than the size
+     * of the tree. Should the query fail (i.e. as it can't be answered from an index), the subtree is walked instead.
+     *
+     * @param basePath the absolute path of the subtree to search
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resources to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resources must be of
+     * @param properties the values the properties of the resources must have, by property name. A value of a type other
+     *            than String, Long, Integer, Double, Boolean or Calendar is compared as a String, and a null value
+     *            matches resources without the property.
+     *
+     * @return a lazy {@link Stream} of the models found, in no particular order
+     */
+    <T> Stream<T> searchModels(String basePath, Class<T> klass, String slingResourceType, Map<String, ?> properties);
+
+    /**
+     * Find the models of the descendants of <code>basePath</code> of exactly <code>slingResourceType</code>, answered
+     * from the resource type index when it covers <code>basePath</code>. See
+     * {@link ResourceUtils#streamDescendants(org.apache.sling.api.resource.Resource, String) ResourceUtils.streamDescendants}.
+     *
+     * @param basePath the absolute path of the subtree to search
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resources to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resources must be of
+     *
+     * @return a {@link List} of the models found, or an empty list if none found
+     */
+    <T> List<T> findDescendantModels(String basePath, Class<T> klass, String slingResourceType);
+
+    /**
+     * The same as {@link #findDescendantModels(String, Class, String) findDescendantModels}, but only finds the 1st
+     * model.
+     *
+     * @param basePath the absolute path of the subtree to search
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resource to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resource must be of
+     *
+     * @return the model found, null if none found
+     */
+    <T> T findFirstDescendantModel(String basePath, Class<T> klass, String slingResourceType);
+
+    /**
+     * A parallel equivalent of {@link #streamModelChildren(String, String, Class, String) streamModelChildren} for very
+     * wide trees. The children are adapted on up to <code>parallelism</code> threads, each reading the repository
+     * through its own clone of this resolver. As those clones are closed once all children are processed, each model is
+     * turned into a result by <code>mapper</code> (on the worker thread) and only the results are returned.
+     *
+     * @param parentPath  the parentPath location of the resources to list
+     * @param subPath the relative path to the parentPath to find the resource (eg: "jcr:content")
+     * @param klass the class to {@link org.apache.sling.api.adapter.Adaptable#adaptTo(Class) adaptTo(klass)} the resource to
+     * @param <T> the <code>klass</code> type of the model
+     * @param slingResourceType the sling:resourceType the resource at the given path and subPath must match before it's adapted to T
+     * @param mapper maps a model to a result that doesn't hold on to the model's resource or resolver. Must be thread safe.
+     * @param <R> the type of result
+     * @param parallelism the maximum number of threads
+     *
+     * @return an unmodifiable {@link List} of the non null results in repository order, or an empty list if none found
+     * @throws RepositoryLoginException if this resolver can't be cloned
+     */
+    <T, R> List<R> mapModelChildren(String parentPath, String subPath, Class<T> klass, String slingResourceType,
+        Function<? super T, ? extends R> mapper, int parallelism) throws RepositoryLoginException;
+
+    /**
+     * Model lookups ({@link #findModel(String, Class, String) findModel}, {@link #listModelChildren(String, String, Class, String)
+     * listModelChildren} and {@link #streamModelChildren(String, String, Class, String) streamModelChildren}) can be
+     * memoized for the lifetime of a resolver (see {@link TypedResourceResolverFactory#wrap(ResourceResolver, boolean)}).
+     * Memoized results, including not found ones, are discarded on {@link #refresh()}, {@link #commit()} and {@link #revert()}.
+     *
+     * @return the statistics of the memoized model lookups, {@link CacheStats#DISABLED} if memoization is disabled
+     */
+    CacheStats getModelCacheStats();
+
 }
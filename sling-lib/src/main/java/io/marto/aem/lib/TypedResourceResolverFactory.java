@@ -18,8 +18,13 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 */
 package io.marto.aem.lib;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import javax.annotation.Nonnull;
 
+import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.ResourceResolver;
 
 /**
@@ -46,7 +51,8 @@ import org.apache.sling.api.resource.ResourceResolver;
 public interface TypedResourceResolverFactory {
 
     /**
-     * A convenience method to obtain a {@link TypedResourceResolver}.
+     * A convenience method to obtain a {@link TypedResourceResolver}. The caller must {@link ResourceResolver#close()
+     * close} the resolver; when resolver pooling is enabled this hands it back to the pool rather than logging out.
      *
      * @param subService the "Sub Service" mapped to the repository user that is used to log into the repository.
      *
@@ -55,11 +61,33 @@ public interface TypedResourceResolverFactory {
      */
     @Nonnull TypedResourceResolver getSubServiceResolver(String subService) throws RepositoryLoginException;
 
+    /**
+     * Decorate an existing resolver (i.e. the resolver of the current request) as a {@link TypedResourceResolver}. The
+     * caller remains responsible for the lifecycle of <code>resolver</code>.
+     *
+     * @param resolver the resolver to decorate
+     * @param memoize whether model lookups should be memoized for the lifetime of the returned resolver. This is meant
+     *            for request scoped resolvers where the same models are looked up many times during a single render.
+     *
+     * @return the typed resolver; never null
+     */
+    @Nonnull TypedResourceResolver wrap(ResourceResolver resolver, boolean memoize);
+
+    /**
+     * Models of classes annotated with {@link CacheableModel} that are looked up via resolvers of this factory are shared
+     * across resolvers and requests. Resolvers of a "Sub Service" share models with each other, while
+     * {@link #wrap(ResourceResolver, boolean) wrapped} resolvers share models with other resolvers of the same user.
+     *
+     * @return the cache of shared models; never null
+     */
+    @Nonnull SharedModelCache getSharedModelCache();
+
     /**
      * Execute some repository business logic (<code>task</code>) as a logged in "Service User". This method implements
      * the boilerplate logic of:
      * <ul>
-     * <li>Logging into the repository as the user mapped by "Sub Service" (<code>subService</code>)
+     * <li>Logging into the repository as the user mapped by "Sub Service" (<code>subService</code>), or borrowing a
+     * refreshed resolver of that user from the pool if resolver pooling is enabled
      * <li>Ensuring that the {@link ResourceResolver#close()} method is always called after the business logic finishes
      * executing
      * </ul>
@@ -80,4 +108,60 @@ public interface TypedResourceResolverFactory {
      */
     <T, E extends Exception> T execute(String subService, RepositoryTask<T, E> task) throws E, RepositoryLoginException;
 
+    /**
+     * A variant of {@link #execute(String, RepositoryTask)} for tasks that write too much to commit at once (i.e.
+     * migrations and imports). The task reports each change it makes to a {@link Batch}, which commits the pending
+     * changes every {@link BatchOptions#everyChanges(int) N changes} or {@link BatchOptions#orEveryMillis(long) M milliseconds},
+     * so the transient state of the resolver stays bounded however much the task writes. The remaining changes are
+     * committed once the task returns; if it throws, the uncommitted changes are discarded.
+     * <p>
+     * With a {@link BatchOptions#withCheckpoint(String) checkpoint}, the position of the last committed change is written
+     * in the same commit as the changes, so a task that fails can {@link Batch#getResumePosition() resume} from there when
+     * it's run again.
+     * </p>
+     *
+     * @param subService the "Sub Service" mapped to the repository user that is used to log into the repository
+     * @param options how to batch the changes
+     * @param task the business logic to execute
+     * @param <T> the type of result the task returns
+     * @param <E> the type of exception the task may throw if an error occurs
+     *
+     * @return T whatever is returned by the <code>task</code>
+     * @throws E the exception thrown by the <code>task</code>
+     * @throws PersistenceException if a batch can't be committed
+     * @throws RepositoryLoginException when we can't log in as the service user.
+     */
+    <T, E extends Exception> T executeBatched(String subService, BatchOptions options, BatchTask<T, E> task)
+        throws E, PersistenceException, RepositoryLoginException;
+
+    /**
+     * The asynchronous equivalent of {@link #execute(String, RepositoryTask)}. The <code>task</code> runs on a bounded
+     * executor dedicated to <code>subService</code> with its own resource resolver, which is always closed once the task
+     * finishes. Cancelling the returned future before the task has started means the task never logs in.
+     *
+     * @param subService the "Sub Service" mapped to the repository user that is used to log into the repository.
+     * @param task the business logic to execute.
+     * @param <T> the type of result the task returns
+     * @param <E> the type of exception the task may throw if an error occurs
+     *
+     * @return a future completed with the result of <code>task</code>, or exceptionally with the exception thrown by
+     *         it, a {@link RepositoryLoginException} or a {@link java.util.concurrent.RejectedExecutionException} if the
+     *         executor of <code>subService</code> is saturated.
+     */
+    @Nonnull <T, E extends Exception> CompletableFuture<T> executeAsync(String subService, RepositoryTask<T, E> task);
+
+    /**
+     * Fan out independent <code>tasks</code> via {@link #executeAsync(String, RepositoryTask)} so they run concurrently,
+     * each with its own resource resolver. If any of the tasks fails, or the returned future is cancelled, the remaining
+     * tasks are cancelled.
+     *
+     * @param subService the "Sub Service" mapped to the repository user that is used to log into the repository.
+     * @param tasks the business logic to execute.
+     * @param <T> the type of result the tasks return
+     * @param <E> the type of exception the tasks may throw if an error occurs
+     *
+     * @return a future completed with the results of <code>tasks</code> in iteration order, or exceptionally with the
+     *         1st failure.
+     */
+    @Nonnull <T, E extends Exception> CompletableFuture<List<T>> executeAll(String subService, Collection<? extends RepositoryTask<T, E>> tasks);
 }
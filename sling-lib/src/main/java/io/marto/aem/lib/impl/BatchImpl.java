@@ -0,0 +1,161 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.Batch;
+import io.marto.aem.lib.BatchOptions;
+import io.marto.aem.lib.BatchProgress;
+
+/**
+ * Commits the changes of a {@link io.marto.aem.lib.BatchTask} in batches, along with the checkpoint if one is kept.
+ * A commit also discards the models memoized by the resolver, so the memory held stays bounded by the batch size.
+ */
+class BatchImpl implements Batch {
+
+    static final String PROP_POSITION = "position";
+    static final String PROP_CHANGES = "changes";
+    static final String PROP_UPDATED = "updated";
+
+    private static final Map<String, Object> CHECKPOINT_PROPERTIES = Collections.singletonMap("jcr:primaryType", "nt:unstructured");
+    private static final String CHECKPOINT_INTERMEDIATE_TYPE = "sling:Folder";
+
+    private final ResourceResolver resolver;
+    private final BatchOptions options;
+    private final String resumePosition;
+    private final long started = System.currentTimeMillis();
+
+    private long lastCommit = started;
+    private int pending;
+    private String position;
+    private long changes;
+    private int batches;
+    private BatchProgress progress;
+
+    BatchImpl(ResourceResolver resolver, BatchOptions options) {
+        this.resolver = resolver;
+        this.options = options;
+        this.resumePosition = options.getResumePosition() != null ? options.getResumePosition() : checkpointPosition();
+        this.progress = new BatchProgress(resumePosition, 0, 0, 0);
+        if (resumePosition != null) {
+            LOGGER.info("Resuming after position={}", resumePosition);
+        }
+    }
+
+    @Override
+    public String getResumePosition() {
+        return resumePosition;
+    }
+
+    @Override
+    public void changed(String at) throws PersistenceException {
+        changed(1, at);
+    }
+
+    @Override
+    public void changed(int count, String at) throws PersistenceException {
+        pending += count;
+        position = at;
+        if (pending >= options.getMaxChanges() || System.currentTimeMillis() - lastCommit >= options.getMaxMillis()) {
+            commit(at);
+        }
+    }
+
+    @Override
+    public void commit(String at) throws PersistenceException {
+        position = at;
+        if (pending == 0 && !resolver.hasChanges()) {
+            return;
+        }
+        writeCheckpoint();
+        resolver.commit();
+        changes += pending;
+        pending = 0;
+        batches++;
+        lastCommit = System.currentTimeMillis();
+        progress = new BatchProgress(position, changes, batches, lastCommit - started);
+        LOGGER.debug("Committed {}", progress);
+        final Consumer<BatchProgress> listener = options.getProgressListener();
+        if (listener != null) {
+            listener.accept(progress);
+        }
+    }
+
+    @Override
+    public @Nonnull BatchProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Commit the remaining changes of the task, which has succeeded, and remove the checkpoint.
+     */
+    void finish() throws PersistenceException {
+        commit(position);
+        final Resource checkpoint = checkpoint();
+        if (checkpoint != null) {
+            resolver.delete(checkpoint);
+            resolver.commit();
+        }
+        LOGGER.info("Finished {}", progress);
+    }
+
+    private String checkpointPosition() {
+        final Resource checkpoint = checkpoint();
+        return checkpoint == null ? null : checkpoint.getValueMap().get(PROP_POSITION, String.class);
+    }
+
+    private @CheckForNull Resource checkpoint() {
+        final String path = options.getCheckpointPath();
+        return path == null ? null : resolver.getResource(path);
+    }
+
+    private void writeCheckpoint() throws PersistenceException {
+        final String path = options.getCheckpointPath();
+        if (path == null || position == null) {
+            return;
+        }
+        final Resource checkpoint = ResourceUtil.getOrCreateResource(resolver, path, CHECKPOINT_PROPERTIES,
+            CHECKPOINT_INTERMEDIATE_TYPE, false);
+        final ValueMap properties = checkpoint.adaptTo(ModifiableValueMap.class);
+        if (properties == null) {
+            throw new PersistenceException("Can't write the checkpoint at " + checkpoint.getPath());
+        }
+        properties.put(PROP_POSITION, position);
+        properties.put(PROP_CHANGES, changes + pending);
+        properties.put(PROP_UPDATED, Calendar.getInstance());
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchImpl.class);
+}
@@ -0,0 +1,335 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyUnbounded;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.CacheWarmer;
+import io.marto.aem.lib.CacheableModel;
+import io.marto.aem.lib.ModelSelector;
+import io.marto.aem.lib.ResourceUtils;
+import io.marto.aem.lib.SharedModelCache;
+import io.marto.aem.lib.TypedResourceResolver;
+import io.marto.aem.lib.TypedResourceResolverFactory;
+import lombok.Value;
+
+/**
+ * Warms up the configured entries on activation, each in its own {@link TypedResourceResolverFactory#execute(String,
+ * io.marto.aem.lib.RepositoryTask) repository task} on a bounded pool of threads. An entry is either
+ * <ul>
+ * <li><code>path</code> - every resource of the subtree is read, or</li>
+ * <li><code>path|model class|resource type</code> - the resource at <code>path</code> and its descendants of exactly
+ * the resource type are adapted to the model class, which goes into the {@link SharedModelCache} when it is
+ * {@link CacheableModel cacheable}.</li>
+ * </ul>
+ * <p>
+ * Models are shared by partition, and those of the warmer's sub service are only read by other resolvers of that sub
+ * service. To serve them to requests, or to other sub services, the warmer puts models into the configured partitions
+ * instead, as if they had been loaded by their resolvers. This is only safe if the warmer's sub service can't read
+ * anything those users or sub services can't.
+ * </p>
+ * <p>
+ * Model classes are loaded from whichever bundle can load them, as they are usually private to the bundle of the models.
+ * Entries still running once the time budget is spent stop where they are, and those not started yet are skipped.
+ * </p>
+ */
+@Component(metatype = true, immediate = true, policy = ConfigurationPolicy.REQUIRE, label = "Cache Warmer",
+    description = "Pre-loads content and models in the background after startup")
+@Service(CacheWarmer.class)
+public class CacheWarmerImpl implements CacheWarmer {
+
+    private static final String DEFAULT_SUB_SERVICE = "cache-warmer";
+    private static final int DEFAULT_PARALLELISM = 2;
+    private static final long DEFAULT_BUDGET_MILLIS = 120000L;
+
+    @Property(unbounded = PropertyUnbounded.ARRAY, label = "Entries",
+        description = "The content to warm up: 'path' to read a subtree, or 'path|model class|resource type' to adapt the "
+            + "resource at path and its descendants of the resource type to the model class")
+    static final String PROP_ENTRIES = "warmer.entries";
+
+    @Property(value = DEFAULT_SUB_SERVICE, label = "Sub service",
+        description = "The sub service to read the content as. Without partitions, models are only shared with other resolvers "
+            + "of this sub service")
+    static final String PROP_SUB_SERVICE = "warmer.subService";
+
+    @Property(unbounded = PropertyUnbounded.ARRAY, label = "Partitions",
+        description = "The shared model cache partitions to warm models into: 'user:<user id>' for requests of the user (i.e. "
+            + "'user:anonymous') or 'service:<sub service>' for a sub service. The sub service above must not be able to read "
+            + "anything they can't. Defaults to the partition of the sub service above")
+    static final String PROP_PARTITIONS = "warmer.partitions";
+
+    @Property(intValue = DEFAULT_PARALLELISM, label = "Parallelism",
+        description = "The maximum number of entries warmed up at once")
+    static final String PROP_PARALLELISM = "warmer.parallelism";
+
+    @Property(longValue = DEFAULT_BUDGET_MILLIS, label = "Time budget (ms)",
+        description = "The warm up stops this long after activation whether it's done or not")
+    static final String PROP_BUDGET_MILLIS = "warmer.budgetMillis";
+
+    @Reference
+    private TypedResourceResolverFactory resolverFactory;
+
+    private volatile BundleContext bundleContext;
+    private volatile WarmUp warmUp = new WarmUp(Long.MAX_VALUE, Collections.emptyList());
+    private volatile ExecutorService workers;
+    private volatile CompletableFuture<?>[] tasks;
+
+    @Activate
+    protected void activate(BundleContext context, Map<String, Object> config) {
+        bundleContext = context;
+        final String subService = PropertiesUtil.toString(config.get(PROP_SUB_SERVICE), DEFAULT_SUB_SERVICE);
+        final int parallelism = Math.max(1, PropertiesUtil.toInteger(config.get(PROP_PARALLELISM), DEFAULT_PARALLELISM));
+        final long budget = PropertiesUtil.toLong(config.get(PROP_BUDGET_MILLIS), DEFAULT_BUDGET_MILLIS);
+        final List<Entry> entries = parse(PropertiesUtil.toStringArray(config.get(PROP_ENTRIES), new String[0]));
+        final List<String> partitions = new ArrayList<>();
+        for (String partition : PropertiesUtil.toStringArray(config.get(PROP_PARTITIONS), new String[0])) {
+            if (StringUtils.isNotBlank(partition)) {
+                partitions.add(partition.trim());
+            }
+        }
+
+        final WarmUp current = new WarmUp(System.currentTimeMillis() + budget, partitions);
+        warmUp = current;
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "cache-warmer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = pool;
+        final CompletableFuture<?>[] started = entries.stream()
+            .map(entry -> CompletableFuture.runAsync(() -> current.warm(subService, entry), pool))
+            .toArray(CompletableFuture<?>[]::new);
+        tasks = started;
+        CompletableFuture.allOf(started).whenComplete((done, e) -> {
+            pool.shutdown();
+            current.finish(entries.size(), budget, e != null);
+        });
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        final ExecutorService pool = workers;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        // the tasks still queued are dropped by the pool, so they must be completed for the warm up to finish
+        final CompletableFuture<?>[] started = tasks;
+        if (started != null) {
+            for (CompletableFuture<?> task : started) {
+                task.cancel(true);
+            }
+        }
+        bundleContext = null;
+    }
+
+    @Override
+    public boolean isWarm() {
+        return warmUp.done.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitWarm(long timeout, TimeUnit unit) throws InterruptedException {
+        return warmUp.done.await(timeout, unit);
+    }
+
+    private List<Entry> parse(String[] values) {
+        final List<Entry> entries = new ArrayList<>();
+        for (String value : values) {
+            final String[] parts = StringUtils.split(value, '|');
+            if (parts.length == 1 || parts.length == 3) {
+                entries.add(new Entry(parts[0].trim(), parts.length == 3 ? parts[1].trim() : null, parts.length == 3 ? parts[2].trim() : null));
+            } else if (parts.length > 0) {
+                LOGGER.warn("Ignoring cache warmer entry '{}', expected 'path' or 'path|model class|resource type'", value);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return <code>className</code> loaded from the 1st bundle that can, null if none can
+     */
+    private Class<?> loadClass(String className) {
+        final BundleContext context = bundleContext;
+        if (context != null) {
+            for (Bundle bundle : context.getBundles()) {
+                if ((bundle.getState() & (Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE)) != 0) {
+                    try {
+                        return bundle.loadClass(className);
+                    } catch (ClassNotFoundException | IllegalStateException e) {
+                        // not visible to (or no longer in) this bundle
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Value
+    private static class Entry {
+        private final String path;
+        private final String className;
+        private final String slingResourceType;
+
+        @Override
+        public String toString() {
+            return className == null ? path : path + '|' + className + '|' + slingResourceType;
+        }
+    }
+
+    /** The progress of one warm up */
+    private final class WarmUp {
+        private final long deadline;
+        /** The partitions to put models into, empty for the partition of the sub service */
+        private final List<String> partitions;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final AtomicInteger resources = new AtomicInteger();
+        private final AtomicInteger models = new AtomicInteger();
+        private final AtomicInteger cutShort = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final long start = System.currentTimeMillis();
+
+        WarmUp(long deadline, List<String> partitions) {
+            this.deadline = deadline;
+            this.partitions = partitions;
+        }
+
+        void warm(String subService, Entry entry) {
+            if (isOver()) {
+                cutShort.incrementAndGet();
+                return;
+            }
+            try {
+                final Class<?> klass = entry.getClassName() == null ? null : loadClass(entry.getClassName());
+                if (entry.getClassName() != null && klass == null) {
+                    LOGGER.warn("Not warming up {}, no bundle can load its model class", entry);
+                    failed.incrementAndGet();
+                    return;
+                }
+                final boolean complete = resolverFactory.execute(subService, resolver -> warm(resolver, entry, klass));
+                if (!complete) {
+                    cutShort.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to warm up {}", entry, e);
+                failed.incrementAndGet();
+            }
+        }
+
+        /**
+         * @return whether all of <code>entry</code> was warmed up, false if it was cut short
+         */
+        private boolean warm(TypedResourceResolver resolver, Entry entry, Class<?> klass) {
+            final Resource root = resolver.getResource(entry.getPath());
+            if (root == null) {
+                LOGGER.warn("Not warming up {}, its path can't be read", entry);
+                return true;
+            }
+            if (klass == null) {
+                for (Iterator<Resource> it = ResourceUtils.traverse(root).iterator(); it.hasNext();) {
+                    if (isOver()) {
+                        return false;
+                    }
+                    it.next().getValueMap().size();
+                    resources.incrementAndGet();
+                }
+                return true;
+            }
+            return warmModels(resolver, root, ModelSelector.of(klass, entry.getSlingResourceType()));
+        }
+
+        private <T> boolean warmModels(TypedResourceResolver resolver, Resource root, ModelSelector<T> selector) {
+            final List<TypedResourceResolver> targets = new ArrayList<>();
+            if (partitions.isEmpty() || !selector.getKlass().isAnnotationPresent(CacheableModel.class)) {
+                targets.add(resolver);
+            } else {
+                final SharedModelCache sharedModels = resolverFactory.getSharedModelCache();
+                for (String partition : partitions) {
+                    targets.add(new TypedResourceResolverImpl(resolver, false, sharedModels, partition));
+                }
+            }
+            final Iterator<Resource> it = Stream.concat(Stream.of(root), ResourceUtils.streamDescendants(root, selector.getSlingResourceType()))
+                .iterator();
+            while (it.hasNext()) {
+                if (isOver()) {
+                    return false;
+                }
+                resources.incrementAndGet();
+                final Resource resource = it.next();
+                boolean found = false;
+                for (TypedResourceResolver target : targets) {
+                    found |= target.findModel(resource, selector) != null;
+                }
+                if (found) {
+                    models.incrementAndGet();
+                }
+            }
+            return true;
+        }
+
+        private boolean isOver() {
+            return System.currentTimeMillis() >= deadline || Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         * @param stopped whether the warm up was stopped by the deactivation of the warmer
+         */
+        void finish(int entries, long budget, boolean stopped) {
+            final long elapsed = System.currentTimeMillis() - start;
+            if (stopped) {
+                LOGGER.info("Stopped warming up after {} resources and {} models of {} entries in {}ms", resources, models, entries, elapsed);
+            } else if (cutShort.get() > 0) {
+                LOGGER.warn("Warmed up {} resources and {} models of {} entries in {}ms, {} entries were cut short by the budget of {}ms and {} failed",
+                    resources, models, entries, elapsed, cutShort, budget, failed);
+            } else {
+                LOGGER.info("Warmed up {} resources and {} models of {} entries in {}ms, {} failed", resources, models, entries, elapsed, failed);
+            }
+            done.countDown();
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheWarmerImpl.class);
+}
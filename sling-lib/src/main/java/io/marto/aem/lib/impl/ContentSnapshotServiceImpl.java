@@ -0,0 +1,182 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyUnbounded;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.ContentSnapshot;
+import io.marto.aem.lib.ContentSnapshotService;
+import io.marto.aem.lib.TypedResourceResolverFactory;
+
+/**
+ * Takes a {@link ContentSnapshot} of each configured root on activation and applies the changes under a root to its
+ * snapshot, re-reading only the changed resources. Snapshots are taken, and changes applied, in order on a single
+ * background thread; readers keep using the previous snapshot of a root until the next one replaces it. A root that
+ * can't be read has no snapshot until a change at, above or below it makes it readable.
+ */
+@Component(metatype = true, immediate = true, policy = ConfigurationPolicy.REQUIRE, label = "Content Snapshots",
+    description = "Keeps compact snapshots of rarely changing subtrees to read them without a resolver")
+@Service({ ContentSnapshotService.class, ResourceChangeListener.class })
+public class ContentSnapshotServiceImpl implements ContentSnapshotService, ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final String DEFAULT_SUB_SERVICE = "content-snapshot";
+
+    @Property(unbounded = PropertyUnbounded.ARRAY, label = "Roots",
+        description = "The absolute paths of the subtrees to snapshot")
+    static final String PROP_ROOTS = ResourceChangeListener.PATHS;
+
+    @Property(value = DEFAULT_SUB_SERVICE, label = "Sub service",
+        description = "The sub service to read the subtrees as")
+    static final String PROP_SUB_SERVICE = "snapshot.subService";
+
+    @Reference
+    private TypedResourceResolverFactory resolverFactory;
+
+    private final Map<String, ContentSnapshot> snapshots = new ConcurrentHashMap<>();
+    private List<String> roots;
+    private String subService;
+    private ExecutorService updater;
+
+    @Activate
+    protected void activate(Map<String, Object> config) {
+        roots = Arrays.asList(PropertiesUtil.toStringArray(config.get(PROP_ROOTS), new String[0]));
+        subService = PropertiesUtil.toString(config.get(PROP_SUB_SERVICE), DEFAULT_SUB_SERVICE);
+        updater = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "content-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        updater.execute(this::build);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        updater.shutdownNow();
+        snapshots.clear();
+    }
+
+    @Override
+    public @CheckForNull ContentSnapshot getSnapshot(String rootPath) {
+        return snapshots.get(rootPath);
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        try {
+            updater.execute(() -> apply(changes));
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Ignoring {} changes as the snapshots have been deactivated", changes.size());
+        }
+    }
+
+    private void build() {
+        for (String root : roots) {
+            if (!take(root)) {
+                LOGGER.warn("Not taking a snapshot of {}, it can't be read", root);
+            }
+        }
+    }
+
+    /**
+     * @return whether the root could be read, and a snapshot of it was taken
+     */
+    private boolean take(String root) {
+        final long start = System.currentTimeMillis();
+        try {
+            final ContentSnapshot snapshot = resolverFactory.execute(subService, resolver -> {
+                final Resource resource = resolver.getResource(root);
+                return resource == null ? null : ContentSnapshot.of(resource);
+            });
+            if (snapshot != null) {
+                snapshots.put(root, snapshot);
+                LOGGER.info("Took {} in {}ms", snapshot, System.currentTimeMillis() - start);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to take a snapshot of {}", root, e);
+        }
+        return snapshots.containsKey(root);
+    }
+
+    private void apply(List<ResourceChange> changes) {
+        final List<ContentSnapshot> current = new ArrayList<>(snapshots.values());
+        try {
+            resolverFactory.execute(subService, resolver -> {
+                for (ContentSnapshot snapshot : current) {
+                    final ContentSnapshot updated = snapshot.update(resolver, changes);
+                    if (updated.getRoot() == null) {
+                        // taken again once the root can be read
+                        snapshots.remove(updated.getRootPath());
+                        LOGGER.info("Dropped the snapshot of {}, it can no longer be read", updated.getRootPath());
+                    } else if (updated != snapshot) {
+                        snapshots.put(updated.getRootPath(), updated);
+                        LOGGER.debug("Updated {} with {} changes", updated, changes.size());
+                    }
+                }
+                return null;
+            });
+            for (String root : roots) {
+                if (!snapshots.containsKey(root) && isAffected(root, changes) && take(root)) {
+                    LOGGER.info("Took the snapshot of {} now it can be read", root);
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to apply {} changes, the snapshots of {} may be stale", changes.size(), roots, e);
+        }
+    }
+
+    /**
+     * @return whether any of <code>changes</code> is at, above or below <code>root</code>
+     */
+    private static boolean isAffected(String root, List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            final String path = change.getPath();
+            if (path.equals(root) || root.startsWith(path + "/") || path.startsWith(root + "/") || "/".equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentSnapshotServiceImpl.class);
+}
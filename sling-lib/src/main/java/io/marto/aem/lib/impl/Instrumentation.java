@@ -0,0 +1,187 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.apache.sling.api.resource.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.RepositoryMetrics;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Times repository work and hands the measurements to the registered {@link RepositoryMetrics}.
+ * <p>
+ * Measuring is a two step affair: {@link #start()} returns the time to measure from, or 0 while instrumentation is
+ * disabled, and the matching <code>record</code> method does nothing for a start of 0. So while disabled, the cost of
+ * instrumentation is a volatile read and a branch. Instrumentation is enabled and configured by the
+ * {@link InstrumentationManager}.
+ * </p>
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Instrumentation {
+
+    private static final Sinks DISABLED = new Sinks(new RepositoryMetrics[0], Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private static volatile Sinks sinks = DISABLED;
+
+    /**
+     * @return the time to measure from, 0 if instrumentation is disabled
+     */
+    public static long start() {
+        return sinks.metrics.length == 0 ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Record an adaptation to a model, logging it when it is slow.
+     *
+     * @param start the result of {@link #start()} taken before the adaptation
+     * @param resource the resource adapted
+     * @param klass the model class adapted to
+     * @param model the model, null if the adaptation failed
+     */
+    public static void recordAdapt(long start, Resource resource, Class<?> klass, @Nullable Object model) {
+        if (start == 0L) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        final Sinks current = sinks;
+        for (RepositoryMetrics metrics : current.metrics) {
+            try {
+                metrics.adapted(klass, nanos, model != null);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record adaptation in {}", metrics, e);
+            }
+        }
+        if (nanos > current.slowAdaptNanos) {
+            LOGGER.warn("Slow adaptation of path={} to class={} took {}ms", resource.getPath(), klass.getName(), TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    static void recordLogin(long start, String subService, boolean success) {
+        if (start == 0L) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        for (RepositoryMetrics metrics : sinks.metrics) {
+            try {
+                metrics.loggedIn(subService, nanos, success);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record login in {}", metrics, e);
+            }
+        }
+    }
+
+    static void recordTask(long start, String subService, boolean success) {
+        if (start == 0L) {
+            return;
+        }
+        final long nanos = System.nanoTime() - start;
+        final Sinks current = sinks;
+        for (RepositoryMetrics metrics : current.metrics) {
+            try {
+                metrics.executed(subService, nanos, success);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record task in {}", metrics, e);
+            }
+        }
+        if (nanos > current.slowTaskNanos) {
+            LOGGER.warn("Slow repository task as subService={} took {}ms", subService, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    static void recordPooled(String subService, boolean hit) {
+        for (RepositoryMetrics metrics : sinks.metrics) {
+            try {
+                metrics.pooled(subService, hit);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record pool checkout in {}", metrics, e);
+            }
+        }
+    }
+
+    /**
+     * @return the metrics the resolver was counted as open in, to count it as closed in by
+     *         {@link #recordClosed(String, RepositoryMetrics[])}, even if instrumentation has been reconfigured since
+     */
+    static RepositoryMetrics[] recordOpened(String subService) {
+        final RepositoryMetrics[] current = sinks.metrics;
+        for (RepositoryMetrics metrics : current) {
+            try {
+                metrics.opened(subService);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record opened resolver in {}", metrics, e);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @param opened the result of {@link #recordOpened(String)} for the resolver
+     */
+    static void recordClosed(String subService, RepositoryMetrics[] opened) {
+        for (RepositoryMetrics metrics : opened) {
+            try {
+                metrics.closed(subService);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record closed resolver in {}", metrics, e);
+            }
+        }
+    }
+
+    static void recordLeaked(String subService) {
+        for (RepositoryMetrics metrics : sinks.metrics) {
+            try {
+                metrics.leaked(subService);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to record leaked resolver in {}", metrics, e);
+            }
+        }
+    }
+
+    /**
+     * @param metrics the sinks to record to, instrumentation is disabled if empty
+     * @param slowTaskMillis tasks running longer than this are logged
+     * @param slowAdaptMillis adaptations taking longer than this are logged
+     */
+    static void enable(Collection<RepositoryMetrics> metrics, long slowTaskMillis, long slowAdaptMillis) {
+        sinks = metrics.isEmpty() ? DISABLED : new Sinks(metrics.toArray(new RepositoryMetrics[metrics.size()]),
+            TimeUnit.MILLISECONDS.toNanos(slowTaskMillis), TimeUnit.MILLISECONDS.toNanos(slowAdaptMillis));
+    }
+
+    static void disable() {
+        sinks = DISABLED;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Sinks {
+        private final RepositoryMetrics[] metrics;
+        private final long slowTaskNanos;
+        private final long slowAdaptNanos;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Instrumentation.class);
+}
@@ -0,0 +1,99 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+
+import io.marto.aem.lib.RepositoryMetrics;
+
+/**
+ * Enables {@link Instrumentation} and keeps it up to date with the registered {@link RepositoryMetrics} sinks.
+ */
+@Component(metatype = true, immediate = true, label = "Repository Instrumentation",
+    description = "Measures logins, repository tasks and model adaptations and logs slow ones")
+@Reference(name = "metrics", referenceInterface = RepositoryMetrics.class, cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+    policy = ReferencePolicy.DYNAMIC, bind = "bindMetrics", unbind = "unbindMetrics")
+public class InstrumentationManager {
+
+    private static final boolean DEFAULT_ENABLED = false;
+    private static final long DEFAULT_SLOW_TASK_MILLIS = 1000L;
+    private static final long DEFAULT_SLOW_ADAPT_MILLIS = 50L;
+
+    @Property(boolValue = DEFAULT_ENABLED, label = "Enabled",
+        description = "Measure logins, repository tasks and model adaptations. Nothing is measured while disabled")
+    static final String PROP_ENABLED = "instrumentation.enabled";
+
+    @Property(longValue = DEFAULT_SLOW_TASK_MILLIS, label = "Slow task (ms)",
+        description = "Repository tasks running longer than this are logged as warnings")
+    static final String PROP_SLOW_TASK_MILLIS = "instrumentation.slowTaskMillis";
+
+    @Property(longValue = DEFAULT_SLOW_ADAPT_MILLIS, label = "Slow adaptation (ms)",
+        description = "Model adaptations taking longer than this are logged as warnings")
+    static final String PROP_SLOW_ADAPT_MILLIS = "instrumentation.slowAdaptMillis";
+
+    private final List<RepositoryMetrics> metrics = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled;
+    private volatile long slowTaskMillis;
+    private volatile long slowAdaptMillis;
+
+    @Activate
+    @Modified
+    protected void activate(Map<String, Object> config) {
+        enabled = PropertiesUtil.toBoolean(config.get(PROP_ENABLED), DEFAULT_ENABLED);
+        slowTaskMillis = PropertiesUtil.toLong(config.get(PROP_SLOW_TASK_MILLIS), DEFAULT_SLOW_TASK_MILLIS);
+        slowAdaptMillis = PropertiesUtil.toLong(config.get(PROP_SLOW_ADAPT_MILLIS), DEFAULT_SLOW_ADAPT_MILLIS);
+        update();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        enabled = false;
+        Instrumentation.disable();
+    }
+
+    protected void bindMetrics(RepositoryMetrics sink) {
+        metrics.add(sink);
+        update();
+    }
+
+    protected void unbindMetrics(RepositoryMetrics sink) {
+        metrics.remove(sink);
+        update();
+    }
+
+    private synchronized void update() {
+        if (enabled) {
+            Instrumentation.enable(metrics, slowTaskMillis, slowAdaptMillis);
+        } else {
+            Instrumentation.disable();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of latencies, in power of two buckets of microseconds. Percentiles are approximate: they are
+ * the upper bound of the bucket the percentile falls into, so at most twice the real value.
+ */
+class LatencyHistogram {
+
+    /** Bucket 0 holds latencies under 1us, bucket i holds [2^(i-1), 2^i) us, the last one everything above */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos, boolean success) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(micros)));
+        count.increment();
+        if (!success) {
+            failures.increment();
+        }
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getFailures() {
+        return failures.sum();
+    }
+
+    double getMeanMillis() {
+        final long n = count.sum();
+        return n == 0 ? 0d : totalNanos.sum() / (n * 1e6d);
+    }
+
+    double getMaxMillis() {
+        return maxNanos.get() / 1e6d;
+    }
+
+    /**
+     * @param percentile between 0 and 1 (i.e. 0.99)
+     * @return the approximate latency in milliseconds below which <code>percentile</code> of the recorded latencies are
+     */
+    double getPercentileMillis(double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        final long rank = (long) Math.ceil(percentile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return (1L << i) / 1e3d;
+            }
+        }
+        return 0d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, failures=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+            getCount(), getFailures(), getMeanMillis(), getPercentileMillis(0.5d), getPercentileMillis(0.99d), getMaxMillis());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.annotation.CheckForNull;
+
+import io.marto.aem.lib.CacheStats;
+
+/**
+ * A thread safe, bounded cache whose entries also expire after a fixed time to live. Reads and writes take no lock: the
+ * entries are in a {@link ConcurrentHashMap}, and past its bound the cache evicts in "clock" (second chance) order,
+ * which approximates least recent use: an entry read since the eviction last passed it is kept for another round.
+ * The value of an entry replaced or removed is let go of straight away, as it may still be in the clock for a while.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+class LruCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final BiConsumer<? super K, ? super V> evicted;
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    /** The entries in the order they were put, including ones since replaced or removed (without a value), which are skipped */
+    private final Queue<Entry<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of entries held, the least recently used entry is evicted past that
+     * @param ttlMillis how long an entry lives for after it has been put
+     */
+    LruCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, (key, value) -> { });
+    }
+
+    /**
+     * @param maxEntries the maximum number of entries held, the least recently used entry is evicted past that
+     * @param ttlMillis how long an entry lives for after it has been put
+     * @param evicted called with each entry evicted or expired, but not with those removed by the caller
+     */
+    LruCache(int maxEntries, long ttlMillis, BiConsumer<? super K, ? super V> evicted) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.evicted = evicted;
+    }
+
+    /**
+     * @return the value of <code>key</code>, null if it isn't cached or has expired
+     */
+    @CheckForNull V get(K key) {
+        final Entry<K, V> entry = entries.get(key);
+        if (entry != null) {
+            final V value = entry.value;
+            if (value != null && entry.expires > System.currentTimeMillis()) {
+                entry.used = true;
+                hits.incrementAndGet();
+                return value;
+            }
+            if (value != null && entries.remove(key, entry)) {
+                entry.value = null;
+                evicted.accept(key, value);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(K key, V value) {
+        final Entry<K, V> entry = new Entry<>(key, value, System.currentTimeMillis() + ttlMillis);
+        release(entries.put(key, entry));
+        clock.offer(entry);
+        if (clockSize.incrementAndGet() > 2 * maxEntries || entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Remove <code>key</code>, only if it still has <code>value</code>.
+     *
+     * @return whether it was removed
+     */
+    boolean remove(K key, V value) {
+        final Entry<K, V> entry = entries.get(key);
+        if (entry != null && entry.value == value && entries.remove(key, entry)) {
+            entry.value = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether <code>key</code> was removed
+     */
+    boolean remove(K key) {
+        return release(entries.remove(key));
+    }
+
+    void clear() {
+        for (K key : entries.keySet()) {
+            release(entries.remove(key));
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    CacheStats getStats() {
+        return new CacheStats(hits.get(), misses.get(), size());
+    }
+
+    /**
+     * Evict entries past <code>maxEntries</code>, and drop the entries since replaced or removed from the clock once they
+     * make up half of it. Only one thread evicts at a time, the others carry on as the cache is only over its bound for
+     * a moment.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            // a used entry loses its 2nd chance on the 1st pass over it, so it can be evicted on the 2nd
+            for (int steps = 2 * clockSize.get(); steps > 0 && (entries.size() > maxEntries || clockSize.get() > maxEntries); steps--) {
+                final Entry<K, V> entry = clock.poll();
+                if (entry == null) {
+                    break;
+                }
+                clockSize.decrementAndGet();
+                if (entries.get(entry.key) != entry) {
+                    // replaced or removed since it was put
+                    continue;
+                }
+                if (entries.size() <= maxEntries) {
+                    // only dropping replaced or removed entries
+                    requeue(entry);
+                } else if (entry.used && entry.expires > now) {
+                    entry.used = false;
+                    requeue(entry);
+                } else {
+                    final V value = entry.value;
+                    if (entries.remove(entry.key, entry)) {
+                        entry.value = null;
+                        evicted.accept(entry.key, value);
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Let go of the value of an entry no longer in the cache.
+     *
+     * @return whether there was an entry
+     */
+    private static boolean release(@CheckForNull Entry<?, ?> entry) {
+        if (entry == null) {
+            return false;
+        }
+        entry.value = null;
+        return true;
+    }
+
+    private void requeue(Entry<K, V> entry) {
+        clock.offer(entry);
+        clockSize.incrementAndGet();
+    }
+
+    private static final class Entry<K, V> {
+        private final K key;
+        /** Null once the entry is replaced or removed */
+        private volatile V value;
+        private final long expires;
+        private volatile boolean used;
+
+        Entry(K key, V value, long expires) {
+            this.key = key;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
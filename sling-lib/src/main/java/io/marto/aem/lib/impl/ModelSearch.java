@@ -0,0 +1,233 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nonnull;
+import javax.jcr.query.Query;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.ResourceUtils;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Finds the descendants of a base path of exactly a resource type, and with properties of given values, either from
+ * the {@link ResourceTypeIndex}, by walking the tree or by a JCR-SQL2 query.
+ * <p>
+ * Searches under the roots of the index are answered from it. Otherwise the tree is walked first, up to
+ * <code>budget</code> resources: when the subtree is smaller than that, what the walk found is the result, as a walk
+ * that small is cheaper than a query. Otherwise the rest of the search is handed to a query, so its cost follows the
+ * number of results rather than the size of the tree. A query that fails (i.e. as the repository refuses to run queries
+ * that can't be answered from an index) falls back to walking the whole tree. Either way, the resources are found as
+ * the stream is consumed.
+ * </p>
+ */
+@RequiredArgsConstructor
+class ModelSearch {
+
+    private static final DateTimeFormatter JCR_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    private final ResourceResolver resolver;
+    private final String basePath;
+    private final String slingResourceType;
+    private final Map<String, ?> properties;
+    private final int budget;
+
+    /**
+     * @return a lazy stream of the matching resources, in no particular order
+     */
+    @Nonnull Stream<Resource> resources() {
+        final Resource base = resolver.getResource(basePath);
+        if (base == null) {
+            return Stream.empty();
+        }
+        final Collection<String> indexed = ResourceTypeIndex.descendants(base.getPath(), slingResourceType);
+        if (indexed != null) {
+            return indexed.stream()
+                .map(resolver::getResource)
+                .filter(res -> res != null && matches(res));
+        }
+        return stream(new Search(base));
+    }
+
+    /**
+     * @return the JCR-SQL2 query of this search
+     */
+    String toSql2() {
+        final StringBuilder ret = new StringBuilder("SELECT * FROM [nt:base] AS s WHERE ISDESCENDANTNODE(s, ")
+            .append(literal(basePath))
+            .append(") AND s.[sling:resourceType] = ")
+            .append(literal(slingResourceType));
+        for (Map.Entry<String, ?> property : properties.entrySet()) {
+            ret.append(" AND s.").append(name(property.getKey()));
+            if (property.getValue() == null) {
+                ret.append(" IS NULL");
+            } else {
+                ret.append(" = ").append(value(property.getValue()));
+            }
+        }
+        return ret.toString();
+    }
+
+    private boolean matches(Resource res) {
+        if (!slingResourceType.equals(res.getResourceType())) {
+            return false;
+        }
+        if (properties.isEmpty()) {
+            return true;
+        }
+        final ValueMap values = res.getValueMap();
+        for (Map.Entry<String, ?> property : properties.entrySet()) {
+            final Object expected = property.getValue();
+            // a null value matches a resource without the property
+            final Object actual = expected == null ? values.get(property.getKey()) : values.get(property.getKey(), expected.getClass());
+            if (!Objects.equals(expected, actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String name(String name) {
+        if (name == null || name.isEmpty() || name.indexOf(']') >= 0) {
+            throw new IllegalArgumentException("Invalid property name: " + name);
+        }
+        return "[" + name + "]";
+    }
+
+    private static String value(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            return "CAST(" + literal(value.toString()) + " AS LONG)";
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return "CAST(" + literal(value.toString()) + " AS DOUBLE)";
+        }
+        if (value instanceof Boolean) {
+            return "CAST(" + literal(value.toString()) + " AS BOOLEAN)";
+        }
+        if (value instanceof Calendar) {
+            final Calendar calendar = (Calendar) value;
+            final String date = ZonedDateTime.ofInstant(calendar.toInstant(), calendar.getTimeZone().toZoneId()).format(JCR_DATE);
+            return "CAST(" + literal(date) + " AS DATE)";
+        }
+        return literal(String.valueOf(value));
+    }
+
+    private static String literal(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static Stream<Resource> stream(Iterator<Resource> it) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.NONNULL), false);
+    }
+
+    /**
+     * The matches of a walk of the descendants of the base, returned as they are found. Once the walk has visited
+     * <code>budget</code> resources the rest come from the query instead, less the matches the walk already returned. If
+     * the query fails, the walk carries on through the whole tree.
+     */
+    private final class Search implements Iterator<Resource> {
+        private final Iterator<Resource> walk;
+        /** The paths of the matches returned by the walk, while the query may still return them again */
+        private Set<String> walked = new HashSet<>();
+        private Iterator<Resource> results;
+        private int visited;
+        private Resource next;
+
+        Search(Resource base) {
+            walk = ResourceUtils.traverse(base).iterator();
+            walk.next(); // the base isn't its own descendant
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (results != null) {
+                    if (!results.hasNext()) {
+                        return false;
+                    }
+                    final Resource res = results.next();
+                    if (matches(res) && !walked.contains(res.getPath())) {
+                        next = res;
+                    }
+                } else if (!walk.hasNext()) {
+                    return false;
+                } else if (walked != null && visited++ >= budget) {
+                    query();
+                } else {
+                    final Resource res = walk.next();
+                    if (matches(res)) {
+                        next = res;
+                        if (walked != null) {
+                            walked.add(res.getPath());
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Resource ret = next;
+            next = null;
+            return ret;
+        }
+
+        /**
+         * Hand the rest of the search to the query, or if it fails leave it to the walk.
+         */
+        private void query() {
+            final String query = toSql2();
+            try {
+                final Iterator<Resource> found = resolver.findResources(query, Query.JCR_SQL2);
+                // a query that can't run typically fails on its 1st result rather than when it is created
+                found.hasNext();
+                results = found;
+            } catch (RuntimeException e) {
+                LOGGER.info("Walking {} as the query failed: {} ({})", basePath, e.getMessage(), query);
+                walked = null;
+            }
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelSearch.class);
+}
@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.RepositoryLoginException;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Walks a tree of resources in parallel on a fork/join pool. As a {@link ResourceResolver} isn't thread safe, each
+ * worker thread reads the tree through its own {@link ResourceResolver#clone(Map) clone} of the caller's resolver, and
+ * all the clones are closed once the walk finishes. Subtrees are handed to other workers only while they are short of
+ * work, otherwise a worker walks them itself.
+ * <p>
+ * The <code>collector</code> is called on worker threads with resources of the worker resolvers, so it must be thread
+ * safe and must not return anything that holds on to the resource or its resolver.
+ * </p>
+ *
+ * @param <R> the type of result collected for a resource
+ */
+@RequiredArgsConstructor
+public class ParallelTreeWalker<R> {
+
+    /** Fork a subtree while a worker has fewer than this many tasks queued up */
+    private static final int SURPLUS_TASKS = 2;
+
+    private final int parallelism;
+    private final int maxDepth;
+    private final Predicate<? super Resource> prune;
+    private final Function<? super Resource, ? extends R> collector;
+
+    /**
+     * @param root the root of the tree to walk
+     * @return the non null results of the <code>collector</code> in depth first (pre-order) order
+     * @throws RepositoryLoginException if the resolver of <code>root</code> can't be cloned
+     */
+    public @Nonnull List<R> walk(Resource root) throws RepositoryLoginException {
+        final Walk walk = new Walk(root.getResourceResolver());
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            return pool.invoke(walk.subtree(root.getPath(), 0));
+        } finally {
+            // a failed walk may leave tasks running, which must be done with their clones before these are closed
+            walk.stop();
+            pool.shutdownNow();
+            awaitTermination(pool);
+            walk.close();
+        }
+    }
+
+    private static void awaitTermination(ForkJoinPool pool) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOGGER.debug("Waiting for the tasks of a failed walk to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Walk {
+        private final WorkerResolvers workers;
+        private volatile boolean stopped;
+
+        Walk(ResourceResolver resolver) {
+            this.workers = new WorkerResolvers(resolver);
+        }
+
+        ForkJoinTask<List<R>> subtree(String path, int depth) {
+            return ForkJoinTask.adapt(() -> {
+                final Resource resource = workers.get().getResource(path);
+                if (resource == null) {
+                    return Collections.<R>emptyList();
+                }
+                final List<Object> segments = new ArrayList<>();
+                visit(resource, depth, segments);
+                return join(segments);
+            });
+        }
+
+        /**
+         * Visit <code>resource</code> and its subtree, adding each result, or the forked task of a subtree, to <code>segments</code>.
+         */
+        private void visit(Resource resource, int depth, List<Object> segments) {
+            if (stopped) {
+                return;
+            }
+            final R result = collector.apply(resource);
+            if (result != null) {
+                segments.add(result);
+            }
+            if (depth >= maxDepth || prune.test(resource)) {
+                return;
+            }
+            for (Resource child : resource.getChildren()) {
+                if (ForkJoinTask.getSurplusQueuedTaskCount() < SURPLUS_TASKS) {
+                    segments.add(subtree(child.getPath(), depth + 1).fork());
+                } else {
+                    visit(child, depth + 1, segments);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<R> join(List<Object> segments) {
+            final List<R> ret = new ArrayList<>();
+            for (Object segment : segments) {
+                if (segment instanceof ForkJoinTask) {
+                    ret.addAll(((ForkJoinTask<List<R>>) segment).join());
+                } else {
+                    ret.add((R) segment);
+                }
+            }
+            return ret;
+        }
+
+        void stop() {
+            stopped = true;
+        }
+
+        void close() {
+            workers.close();
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelTreeWalker.class);
+}
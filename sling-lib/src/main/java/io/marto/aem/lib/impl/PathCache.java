@@ -0,0 +1,211 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.sling.api.resource.ResourceUtil;
+
+import io.marto.aem.lib.CacheStats;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A {@link LruCache} of values loaded from content at a path, that can be invalidated for the paths related to a
+ * change without scanning all entries: the keys are indexed by path, and the paths are kept sorted to find the
+ * descendants of a path by a range scan.
+ * <p>
+ * A value loaded while its content changes mustn't be put back after the invalidation of the change. A loader takes a
+ * {@link #stamp()} before loading and passes it to {@link #put(Object, Object, long)}, which drops the value again if
+ * a related path has been invalidated since. The last {@link #RECENT} invalidations are kept to tell; a value loaded
+ * across more than that many invalidations is never put.
+ * </p>
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+class PathCache<K, V> {
+
+    static final int RECENT = 64;
+
+    private final Function<? super K, String> pathOf;
+    private final LruCache<K, V> entries;
+    private final Map<String, Set<K>> byPath = new ConcurrentHashMap<>();
+    private final NavigableSet<String> paths = new ConcurrentSkipListSet<>();
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReferenceArray<Invalidation> recent = new AtomicReferenceArray<>(RECENT);
+
+    /**
+     * @param maxEntries the maximum number of entries held
+     * @param ttlMillis how long an entry lives for after it has been put
+     * @param pathOf the path of the content the value of a key is loaded from
+     */
+    PathCache(int maxEntries, long ttlMillis, Function<? super K, String> pathOf) {
+        this.pathOf = pathOf;
+        this.entries = new LruCache<>(maxEntries, ttlMillis, (key, value) -> unindex(key));
+    }
+
+    /**
+     * @return the value of <code>key</code>, null if it isn't cached or has expired
+     */
+    @CheckForNull V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return the stamp to {@link #put(Object, Object, long) put} a value loaded from now on with
+     */
+    long stamp() {
+        return generation.get();
+    }
+
+    /**
+     * Put a value, unless content it may have been loaded from has been invalidated since <code>stamp</code>.
+     *
+     * @param stamp the {@link #stamp()} taken before <code>value</code> was loaded
+     * @return whether <code>value</code> was put
+     */
+    boolean put(K key, V value, long stamp) {
+        final String path = pathOf.apply(key);
+        entries.put(key, value);
+        index(key, path);
+        // checked after the put, as an invalidation between a check and the put wouldn't find the entry to remove
+        if (invalidatedSince(stamp, path)) {
+            if (entries.remove(key, value)) {
+                unindex(key);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the entries at <code>path</code> and its ancestors, which depend on the content at <code>path</code>,
+     * and if <code>descendants</code> also those below it.
+     *
+     * @return the number of entries removed
+     */
+    int invalidate(String path, boolean descendants) {
+        final long gen = generation.incrementAndGet();
+        recent.set((int) (gen % RECENT), new Invalidation(gen, path, descendants));
+        int removed = 0;
+        for (String p = path; p != null; p = ResourceUtil.getParent(p)) {
+            removed += removeAt(p);
+        }
+        if (descendants) {
+            final String prefix = path.endsWith("/") ? path : path + "/";
+            final String end = prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1);
+            for (String p : paths.subSet(prefix, end)) {
+                removed += removeAt(p);
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        final long gen = generation.incrementAndGet();
+        recent.set((int) (gen % RECENT), new Invalidation(gen, null, true));
+        entries.clear();
+        byPath.clear();
+        paths.clear();
+    }
+
+    CacheStats getStats() {
+        return entries.getStats();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private boolean invalidatedSince(long stamp, String path) {
+        final long current = generation.get();
+        if (current - stamp >= RECENT) {
+            return true;
+        }
+        for (long gen = stamp + 1; gen <= current; gen++) {
+            final Invalidation invalidation = recent.get((int) (gen % RECENT));
+            // not recorded yet, or already overwritten by a later one
+            if (invalidation == null || invalidation.generation != gen || invalidation.affects(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int removeAt(String path) {
+        final Set<K> keys = new HashSet<>();
+        byPath.computeIfPresent(path, (p, indexed) -> {
+            keys.addAll(indexed);
+            paths.remove(p);
+            return null;
+        });
+        int removed = 0;
+        for (K key : keys) {
+            if (entries.remove(key)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void index(K key, String path) {
+        byPath.compute(path, (p, keys) -> {
+            final Set<K> ret = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            ret.add(key);
+            paths.add(p);
+            return ret;
+        });
+    }
+
+    private void unindex(K key) {
+        byPath.computeIfPresent(pathOf.apply(key), (p, keys) -> {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                paths.remove(p);
+                return null;
+            }
+            return keys;
+        });
+    }
+
+    @RequiredArgsConstructor
+    private static final class Invalidation {
+        private final long generation;
+        /** The invalidated path, null for all paths */
+        private final String path;
+        private final boolean descendants;
+
+        boolean affects(String entryPath) {
+            return path == null
+                || SharedModelCacheImpl.isAncestorOrSelf(entryPath, path)
+                || (descendants && SharedModelCacheImpl.isAncestorOrSelf(path, entryPath));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+
+import io.marto.aem.lib.RepositoryMetrics;
+import io.marto.aem.lib.SharedModelCache;
+import io.marto.aem.lib.TypedResourceResolverFactory;
+
+/**
+ * The default {@link RepositoryMetrics}: keeps counters and latency histograms in memory and exposes them, along with
+ * the resolver pool and cache statistics, as an MBean.
+ */
+@Component(immediate = true)
+@Service({ RepositoryMetrics.class, RepositoryStatsMBean.class })
+@Properties({
+    @Property(name = "jmx.objectname", value = "io.marto.aem.lib:type=RepositoryStats")
+})
+public class RepositoryStats implements RepositoryMetrics, RepositoryStatsMBean {
+
+    @Reference
+    private TypedResourceResolverFactory resolverFactory;
+
+    @Reference
+    private SharedModelCache sharedModels;
+
+    private final ConcurrentMap<String, SubServiceStats> subServices = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> models = new ConcurrentHashMap<>();
+
+    @Override
+    public void loggedIn(String subService, long nanos, boolean success) {
+        stats(subService).logins.record(nanos, success);
+    }
+
+    @Override
+    public void pooled(String subService, boolean hit) {
+        (hit ? stats(subService).poolHits : stats(subService).poolMisses).increment();
+    }
+
+    @Override
+    public void opened(String subService) {
+        stats(subService).open.increment();
+    }
+
+    @Override
+    public void closed(String subService) {
+        stats(subService).open.decrement();
+    }
+
+    @Override
+    public void leaked(String subService) {
+        stats(subService).leaked.increment();
+    }
+
+    @Override
+    public void executed(String subService, long nanos, boolean success) {
+        stats(subService).tasks.record(nanos, success);
+    }
+
+    @Override
+    public void adapted(Class<?> klass, long nanos, boolean success) {
+        // keyed by name so that the classes of uninstalled bundles aren't held on to
+        models.computeIfAbsent(klass.getName(), name -> new LatencyHistogram()).record(nanos, success);
+    }
+
+    @Override
+    public String[] getSubServiceStats() {
+        return subServices.entrySet().stream()
+            .map(e -> String.format("subService=%s, open=%d, leaked=%d, poolHits=%d, poolMisses=%d, logins=[%s], tasks=[%s]", e.getKey(),
+                e.getValue().open.sum(), e.getValue().leaked.sum(), e.getValue().poolHits.sum(), e.getValue().poolMisses.sum(), e.getValue().logins, e.getValue().tasks))
+            .sorted()
+            .toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getModelStats() {
+        return models.entrySet().stream()
+            .map(e -> String.format("class=%s, %s", e.getKey(), e.getValue()))
+            .sorted()
+            .toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getPoolStats() {
+        if (!(resolverFactory instanceof TypedResourceResolverFactoryImpl)) {
+            return new String[0];
+        }
+        return ((TypedResourceResolverFactoryImpl) resolverFactory).getPools().stream()
+            .map(ResolverPool::toString)
+            .sorted()
+            .toArray(String[]::new);
+    }
+
+    @Override
+    public String getSharedModelCacheStats() {
+        return sharedModels.getStats().toString();
+    }
+
+    @Override
+    public String getSharedModelMissStats() {
+        return sharedModels.getMissStats().toString();
+    }
+
+    @Override
+    public String getResourceTypeCacheStats() {
+        return ResourceTypeCache.getStats().toString();
+    }
+
+    @Override
+    public long getOpenResolvers() {
+        return subServices.values().stream().mapToLong(stats -> stats.open.sum()).sum();
+    }
+
+    @Override
+    public int getLiveResolvers() {
+        final ResolverTracker tracker = tracker();
+        return tracker == null ? -1 : tracker.getLive();
+    }
+
+    @Override
+    public long getLeakedResolvers() {
+        final ResolverTracker tracker = tracker();
+        return tracker == null ? -1 : tracker.getLeaked();
+    }
+
+    @Override
+    public void reset() {
+        models.clear();
+        // keep the open resolvers count, as the resolvers it counts are still open
+        for (Map.Entry<String, SubServiceStats> e : subServices.entrySet()) {
+            subServices.replace(e.getKey(), e.getValue(), new SubServiceStats(e.getValue().open));
+        }
+    }
+
+    private ResolverTracker tracker() {
+        return resolverFactory instanceof TypedResourceResolverFactoryImpl ? ((TypedResourceResolverFactoryImpl) resolverFactory).getTracker() : null;
+    }
+
+    private SubServiceStats stats(String subService) {
+        return subServices.computeIfAbsent(subService, srvc -> new SubServiceStats(new LongAdder()));
+    }
+
+    private static final class SubServiceStats {
+        private final LatencyHistogram logins = new LatencyHistogram();
+        private final LatencyHistogram tasks = new LatencyHistogram();
+        private final LongAdder poolHits = new LongAdder();
+        private final LongAdder poolMisses = new LongAdder();
+        private final LongAdder leaked = new LongAdder();
+        private final LongAdder open;
+
+        SubServiceStats(LongAdder open) {
+            this.open = open;
+        }
+    }
+}
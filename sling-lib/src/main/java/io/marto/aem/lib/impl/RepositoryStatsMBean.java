@@ -0,0 +1,77 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+/**
+ * The management interface of {@link RepositoryStats}, registered with the platform MBean server through the
+ * <code>jmx.objectname</code> service property.
+ */
+public interface RepositoryStatsMBean {
+
+    /**
+     * @return one line of login, task and resolver statistics per "Sub Service"
+     */
+    String[] getSubServiceStats();
+
+    /**
+     * @return one line of adaptation latency statistics per model class
+     */
+    String[] getModelStats();
+
+    /**
+     * @return one line of statistics per resolver pool
+     */
+    String[] getPoolStats();
+
+    /**
+     * @return the statistics of the shared model cache
+     */
+    String getSharedModelCacheStats();
+
+    /**
+     * @return the statistics of the lookups the shared model cache remembers as misses
+     */
+    String getSharedModelMissStats();
+
+    /**
+     * @return the statistics of the resource type cache
+     */
+    String getResourceTypeCacheStats();
+
+    /**
+     * @return the number of resolvers handed out by the factory that are still open, as counted while instrumentation is
+     *         enabled
+     */
+    long getOpenResolvers();
+
+    /**
+     * @return the number of tracked resolvers handed out by the factory that are still open, -1 if tracking is disabled
+     */
+    int getLiveResolvers();
+
+    /**
+     * @return the number of tracked resolvers found still open past their allowed lifetime, -1 if tracking is disabled
+     */
+    long getLeakedResolvers();
+
+    /**
+     * Forget all the statistics recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.RepositoryLoginException;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A bounded pool of logged in service {@link ResourceResolver resource resolvers} for a single "Sub Service".
+ * <p>
+ * Idle resolvers are handed out most recently used first and are {@link ResourceResolver#refresh() refreshed} on
+ * checkout so that a borrower never sees state left behind by a previous one. Resolvers that have been idle longer
+ * than <code>maxIdleMillis</code> or are no longer live are closed instead of being reused.
+ * </p>
+ */
+@RequiredArgsConstructor
+class ResolverPool {
+
+    private final @Getter String subService;
+    private final int maxSize;
+    private final long maxIdleMillis;
+    private final Supplier<ResourceResolver> login;
+
+    private final Deque<Idle> idle = new ArrayDeque<>();
+    private boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @return a live, refreshed resolver - either a pooled one or a newly logged in one.
+     * @throws RepositoryLoginException if a new resolver had to be created and the login failed
+     */
+    @Nonnull ResourceResolver checkout() throws RepositoryLoginException {
+        Idle entry;
+        while ((entry = pollFirst()) != null) {
+            if (entry.isReusable(System.currentTimeMillis())) {
+                entry.resolver.refresh();
+                hits.incrementAndGet();
+                Instrumentation.recordPooled(subService, true);
+                return entry.resolver;
+            }
+            evict(entry.resolver);
+        }
+        misses.incrementAndGet();
+        Instrumentation.recordPooled(subService, false);
+        return login.get();
+    }
+
+    /**
+     * Return a resolver previously obtained from {@link #checkout()}. Any pending changes are reverted. The resolver is
+     * closed if the pool is full or has been closed.
+     */
+    void release(ResourceResolver resolver) {
+        if (!resolver.isLive()) {
+            return;
+        }
+        if (resolver.hasChanges()) {
+            resolver.revert();
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (idle) {
+            while (!idle.isEmpty() && !idle.peekLast().isReusable(now)) {
+                evict(idle.pollLast().resolver);
+            }
+            if (!closed && idle.size() < maxSize) {
+                idle.addFirst(new Idle(resolver, now));
+                return;
+            }
+        }
+        resolver.close();
+    }
+
+    /**
+     * Close all idle resolvers. Resolvers released after this are closed rather than pooled.
+     */
+    void close() {
+        synchronized (idle) {
+            closed = true;
+            while (!idle.isEmpty()) {
+                idle.pollFirst().resolver.close();
+            }
+        }
+        LOGGER.debug("Closed {}", this);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    int getIdle() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    private Idle pollFirst() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    private void evict(ResourceResolver resolver) {
+        evictions.incrementAndGet();
+        if (resolver.isLive()) {
+            resolver.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResolverPool[subService=%s, idle=%d, hits=%d, misses=%d, evictions=%d]",
+            subService, getIdle(), getHits(), getMisses(), getEvictions());
+    }
+
+    @RequiredArgsConstructor
+    private final class Idle {
+        private final ResourceResolver resolver;
+        private final long since;
+
+        boolean isReusable(long now) {
+            return now - since <= maxIdleMillis && resolver.isLive();
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResolverPool.class);
+}
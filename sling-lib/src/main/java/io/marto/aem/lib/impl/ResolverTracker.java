@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.RepositoryMetrics;
+
+/**
+ * Keeps track of the {@link SubServiceResolver resolvers} handed out by
+ * {@link TypedResourceResolverFactoryImpl#getSubServiceResolver(String)} that are still open, and reports the ones still
+ * open past <code>maxLifetimeMillis</code> as leaked - once each, and along with where they were opened when
+ * <code>recordSite</code> is set. Leaked resolvers are also closed when <code>forceClose</code> is set.
+ * <p>
+ * Resolvers are only referenced weakly, so that one dropped without being closed is still garbage collected and logged
+ * out by Sling. Such a resolver is reported as leaked once it has been collected.
+ * </p>
+ * <p>
+ * Tracking a resolver costs a set insert and removal, plus capturing a stack trace on open when <code>recordSite</code>
+ * is set. Leaks are looked for by a background task every quarter of <code>maxLifetimeMillis</code>.
+ * </p>
+ */
+class ResolverTracker {
+
+    private static final long MIN_REAP_PERIOD_MILLIS = 1000L;
+
+    private final long maxLifetimeMillis;
+    private final boolean forceClose;
+    private final boolean recordSite;
+    private final ScheduledExecutorService reaper;
+
+    private final Set<Tracked> live = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<SubServiceResolver> collected = new ReferenceQueue<>();
+    private final AtomicLong leaked = new AtomicLong();
+
+    ResolverTracker(long maxLifetimeMillis, boolean forceClose, boolean recordSite, ScheduledExecutorService reaper) {
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.forceClose = forceClose;
+        this.recordSite = recordSite;
+        this.reaper = reaper;
+        final long period = Math.max(MIN_REAP_PERIOD_MILLIS, maxLifetimeMillis / 4);
+        reaper.scheduleWithFixedDelay(this::reap, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param countedIn the metrics the resolver was counted as open in
+     * @return the handle to pass to {@link #closed(Tracked)}
+     */
+    Tracked opened(SubServiceResolver resolver, RepositoryMetrics[] countedIn) {
+        final Tracked tracked = new Tracked(resolver, collected, countedIn,
+            recordSite ? new Throwable("Resolver opened by " + Thread.currentThread().getName()) : null);
+        live.add(tracked);
+        return tracked;
+    }
+
+    void closed(Tracked tracked) {
+        live.remove(tracked);
+    }
+
+    /**
+     * Report, and possibly close, the resolvers open past their lifetime, and report those collected without being closed.
+     */
+    void reap() {
+        for (Tracked tracked; (tracked = (Tracked) collected.poll()) != null;) {
+            // still live if it was never closed, and already counted as leaked if it was reported as open for too long
+            if (live.remove(tracked)) {
+                if (tracked.leaked.compareAndSet(false, true)) {
+                    leaked.incrementAndGet();
+                    Instrumentation.recordLeaked(tracked.subService);
+                }
+                Instrumentation.recordClosed(tracked.subService, tracked.countedIn);
+                LOGGER.warn("Resolver of subService={} was garbage collected without being closed", tracked.subService, tracked.site);
+            }
+        }
+        final long now = System.currentTimeMillis();
+        for (Tracked tracked : live) {
+            final long age = now - tracked.openedAt;
+            final SubServiceResolver resolver = tracked.get();
+            if (age <= maxLifetimeMillis || resolver == null || !tracked.leaked.compareAndSet(false, true)) {
+                continue;
+            }
+            leaked.incrementAndGet();
+            Instrumentation.recordLeaked(tracked.subService);
+            LOGGER.warn("Resolver of subService={} has been open for {}ms{}", tracked.subService, age,
+                forceClose ? ", closing it" : "", tracked.site);
+            if (forceClose) {
+                try {
+                    resolver.forceClose();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to close leaked resolver of subService={}", tracked.subService, e);
+                }
+            }
+        }
+    }
+
+    int getLive() {
+        return live.size();
+    }
+
+    long getLeaked() {
+        return leaked.get();
+    }
+
+    /**
+     * Stop looking for leaks. Resolvers still open are left open.
+     */
+    void close() {
+        reaper.shutdownNow();
+        if (!live.isEmpty()) {
+            LOGGER.warn("{} resolvers are still open", live.size());
+        }
+    }
+
+    /** An open resolver, and what is reported about it when it leaks */
+    static final class Tracked extends WeakReference<SubServiceResolver> {
+        private final String subService;
+        private final long openedAt = System.currentTimeMillis();
+        private final RepositoryMetrics[] countedIn;
+        private final Throwable site;
+        private final AtomicBoolean leaked = new AtomicBoolean();
+
+        Tracked(SubServiceResolver resolver, ReferenceQueue<SubServiceResolver> queue, RepositoryMetrics[] countedIn, @CheckForNull Throwable site) {
+            super(resolver, queue);
+            this.subService = resolver.getSubService();
+            this.countedIn = countedIn;
+            this.site = site;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResolverTracker.class);
+}
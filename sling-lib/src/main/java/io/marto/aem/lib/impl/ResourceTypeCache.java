@@ -0,0 +1,166 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import io.marto.aem.lib.CacheStats;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+/**
+ * A cache of the resolved <code>sling:resourceSuperType</code> ancestry of resource types, so that a resource type check
+ * is a set lookup rather than a walk up the super type chain in the repository.
+ * <p>
+ * The cache is only used while the {@link ResourceTypeCacheListener} is active, as that is what evicts it when the
+ * component definitions under <code>/apps</code> and <code>/libs</code> change. Ancestries are kept per user since the
+ * super type chain visible to a resolver depends on its access rights.
+ * </p>
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ResourceTypeCache {
+
+    private static final int MAX_ENTRIES = 5000;
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static volatile LruCache<TypeKey, Set<String>> ancestries;
+
+    /**
+     * A cached equivalent of {@link ResourceResolver#isResourceType(Resource, String)}.
+     *
+     * @param resource the resource to check
+     * @param resourceType the resource type the resource must be of, or have as a super type
+     * @return whether <code>resource</code> is of <code>resourceType</code>; false if either is null
+     */
+    public static boolean isResourceType(@Nullable Resource resource, @Nullable String resourceType) {
+        return isResourceType(resource, resourceType, null);
+    }
+
+    /**
+     * @param searchPath the search path of the resolver of <code>resource</code> if already known, otherwise it is only
+     *            read (as a copy) if an absolute resource type needs to be relativized
+     * @see #isResourceType(Resource, String)
+     */
+    static boolean isResourceType(@Nullable Resource resource, @Nullable String resourceType, @Nullable String[] searchPath) {
+        if (resource == null || resourceType == null) {
+            return false;
+        }
+        final ResourceResolver resolver = resource.getResourceResolver();
+        final LruCache<TypeKey, Set<String>> cache = ancestries;
+        if (cache == null) {
+            return resolver.isResourceType(resource, resourceType);
+        }
+        final String type = resource.getResourceType();
+        if (resourceType.equals(type)) {
+            return true;
+        }
+        final SearchPath search = new SearchPath(resolver, searchPath);
+        final String target = search.relativize(resourceType);
+        if (target.equals(search.relativize(type))) {
+            return true;
+        }
+        final String superType = resource.getResourceSuperType();
+        return ancestry(cache, search, superType != null ? superType : resolver.getParentResourceType(type)).contains(target);
+    }
+
+    /**
+     * @return the statistics of the cache, {@link CacheStats#DISABLED} while it isn't enabled
+     */
+    public static CacheStats getStats() {
+        final LruCache<TypeKey, Set<String>> cache = ancestries;
+        return cache == null ? CacheStats.DISABLED : cache.getStats();
+    }
+
+    static void enable() {
+        ancestries = new LruCache<>(MAX_ENTRIES, TTL_MILLIS);
+    }
+
+    static void disable() {
+        ancestries = null;
+    }
+
+    static void clear() {
+        final LruCache<TypeKey, Set<String>> cache = ancestries;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private static Set<String> ancestry(LruCache<TypeKey, Set<String>> cache, SearchPath search, String type) {
+        if (type == null) {
+            return Collections.emptySet();
+        }
+        final ResourceResolver resolver = search.resolver;
+        final TypeKey key = new TypeKey(resolver.getUserID(), type);
+        Set<String> ancestry = cache.get(key);
+        if (ancestry == null) {
+            final Set<String> types = new HashSet<>();
+            // guard against cycles in the super type chain
+            for (String current = type; current != null && types.add(search.relativize(current));) {
+                current = resolver.getParentResourceType(current);
+            }
+            ancestry = Collections.unmodifiableSet(types);
+            cache.put(key, ancestry);
+        }
+        return ancestry;
+    }
+
+    /** The search path of a resolver, read at most once */
+    private static final class SearchPath {
+        private final ResourceResolver resolver;
+        private String[] paths;
+
+        SearchPath(ResourceResolver resolver, String[] paths) {
+            this.resolver = resolver;
+            this.paths = paths;
+        }
+
+        /**
+         * @return <code>type</code> relative to the search path (i.e. "/apps/foo/bar" is "foo/bar")
+         */
+        String relativize(String type) {
+            if (type != null && type.startsWith("/")) {
+                if (paths == null) {
+                    paths = resolver.getSearchPath();
+                }
+                for (String searchPath : paths) {
+                    if (type.startsWith(searchPath)) {
+                        return type.substring(searchPath.length());
+                    }
+                }
+            }
+            return type;
+        }
+    }
+
+    @Value
+    private static class TypeKey {
+        private final String userId;
+        private final String type;
+    }
+}
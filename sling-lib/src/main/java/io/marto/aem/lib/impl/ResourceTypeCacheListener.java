@@ -0,0 +1,62 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.List;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enables the {@link ResourceTypeCache} and evicts it whenever component definitions change.
+ */
+@Component(immediate = true)
+@Service(ResourceChangeListener.class)
+@Properties({
+    @Property(name = ResourceChangeListener.PATHS, value = { "/apps", "/libs" })
+})
+public class ResourceTypeCacheListener implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    @Activate
+    protected void activate() {
+        ResourceTypeCache.enable();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        ResourceTypeCache.disable();
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        LOGGER.debug("Clearing resource type cache after {} changes", changes.size());
+        ResourceTypeCache.clear();
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceTypeCacheListener.class);
+}
@@ -0,0 +1,194 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * An in-memory index of the paths of the resources under a set of roots by their <code>sling:resourceType</code>, so
+ * that finding the descendants of a type under a path is a range scan over sorted paths rather than a walk of the tree.
+ * <p>
+ * The index is only used once it's been built by the {@link ResourceTypeIndexer}, which also keeps it up to date with
+ * resource changes. As it's built with the access rights of a service user, the paths it returns must still be resolved
+ * with the caller's resolver. Resource types are indexed as they're set on the resources, so a lookup only finds
+ * resources of exactly the type looked up, and not of its sub types.
+ * </p>
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ResourceTypeIndex {
+
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private static volatile Index index;
+
+    /**
+     * @param path the absolute path to look under
+     * @param resourceType the resource type to look up
+     * @return the paths of the descendants of <code>path</code> of <code>resourceType</code> in path order, or null if
+     *         <code>path</code> isn't indexed (i.e. the index is disabled, still being built or doesn't cover it)
+     */
+    public static @CheckForNull Collection<String> descendants(@Nullable String path, @Nullable String resourceType) {
+        final Index current = index;
+        if (current == null || !current.ready || path == null || resourceType == null || !current.covers(path)) {
+            return null;
+        }
+        final NavigableSet<String> paths = current.byType.get(resourceType);
+        if (paths == null) {
+            return Collections.emptySet();
+        }
+        final String prefix = path.endsWith("/") ? path : path + "/";
+        // '0' is the character after '/', so this is every path that starts with the prefix
+        return Collections.unmodifiableSet(paths.subSet(prefix, true, prefix.substring(0, prefix.length() - 1) + '0', false));
+    }
+
+    /**
+     * @return the number of indexed resources, -1 if the index isn't in use
+     */
+    public static int size() {
+        final Index current = index;
+        return current == null || !current.ready ? -1 : current.byPath.size();
+    }
+
+    /**
+     * Start a new index of the resources under <code>roots</code>, which isn't used until {@link #ready(long)}.
+     *
+     * @return the generation of the new index, which the writes to it must be made with; writes made with an earlier
+     *         generation (i.e. by a build that outlived its indexer) are ignored
+     */
+    static synchronized long enable(List<String> roots) {
+        final long generation = GENERATIONS.incrementAndGet();
+        index = new Index(roots, generation);
+        return generation;
+    }
+
+    /**
+     * Start using the index of <code>generation</code>.
+     */
+    static void ready(long generation) {
+        final Index current = current(generation);
+        if (current != null) {
+            current.ready = true;
+        }
+    }
+
+    /**
+     * Stop using the index of <code>generation</code>, if it is still the current one.
+     */
+    static synchronized void disable(long generation) {
+        if (current(generation) != null) {
+            index = null;
+        }
+    }
+
+    /**
+     * @param path the absolute path of a resource
+     * @param resourceType the resource type of the resource, null if it has none
+     */
+    static void put(long generation, String path, @Nullable String resourceType) {
+        final Index current = current(generation);
+        if (current != null && current.covers(path)) {
+            current.put(path, resourceType);
+        }
+    }
+
+    /**
+     * @param path the absolute path of a resource to remove along with its descendants
+     */
+    static void remove(long generation, String path) {
+        final Index current = current(generation);
+        if (current != null) {
+            current.remove(path);
+        }
+    }
+
+    private static @CheckForNull Index current(long generation) {
+        final Index current = index;
+        return current != null && current.generation == generation ? current : null;
+    }
+
+    private static final class Index {
+        private final List<String> roots;
+        private final long generation;
+        private final ConcurrentMap<String, NavigableSet<String>> byType = new ConcurrentHashMap<>();
+        private final NavigableMap<String, String> byPath = new ConcurrentSkipListMap<>();
+        private volatile boolean ready;
+
+        Index(List<String> roots, long generation) {
+            this.roots = roots;
+            this.generation = generation;
+        }
+
+        boolean covers(String path) {
+            for (String root : roots) {
+                if (path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + "/")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void put(String path, String resourceType) {
+            final String previous = resourceType == null ? byPath.remove(path) : byPath.put(path, resourceType);
+            if (previous != null && !previous.equals(resourceType)) {
+                unindex(previous, path);
+            }
+            if (resourceType != null) {
+                byType.computeIfAbsent(resourceType, type -> new ConcurrentSkipListSet<>()).add(path);
+            }
+        }
+
+        synchronized void remove(String path) {
+            final String prefix = path.endsWith("/") ? path : path + "/";
+            final NavigableMap<String, String> subtree = byPath.subMap(prefix, true, prefix.substring(0, prefix.length() - 1) + '0', false);
+            for (Iterator<Map.Entry<String, String>> it = subtree.entrySet().iterator(); it.hasNext();) {
+                final Map.Entry<String, String> entry = it.next();
+                unindex(entry.getValue(), entry.getKey());
+                it.remove();
+            }
+            final String type = byPath.remove(path);
+            if (type != null) {
+                unindex(type, path);
+            }
+        }
+
+        private void unindex(String resourceType, String path) {
+            final NavigableSet<String> paths = byType.get(resourceType);
+            if (paths != null) {
+                paths.remove(path);
+            }
+        }
+    }
+}
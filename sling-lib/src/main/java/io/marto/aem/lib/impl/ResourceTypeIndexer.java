@@ -0,0 +1,185 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyUnbounded;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.ResourceUtils;
+import io.marto.aem.lib.TypedResourceResolver;
+import io.marto.aem.lib.TypedResourceResolverFactory;
+
+/**
+ * Builds the {@link ResourceTypeIndex} of the configured roots on activation and keeps it up to date with the changes
+ * under them. The index is built, and changes are applied to it, in order on a single background thread, so neither
+ * activation nor the delivery of changes waits on the repository; lookups walk the tree until the index is built.
+ * <p>
+ * The component is only active when configured, as the index holds the path of every resource under its roots.
+ * </p>
+ */
+@Component(metatype = true, immediate = true, policy = ConfigurationPolicy.REQUIRE, label = "Resource Type Index",
+    description = "Indexes the resources under a set of roots by resource type, to find descendants by type without walking the tree")
+@Service(ResourceChangeListener.class)
+public class ResourceTypeIndexer implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final String DEFAULT_ROOT = "/content";
+    private static final String DEFAULT_SUB_SERVICE = "resource-type-index";
+    private static final long TERMINATION_TIMEOUT_SECONDS = 10L;
+
+    @Property(value = DEFAULT_ROOT, unbounded = PropertyUnbounded.ARRAY, label = "Roots",
+        description = "The absolute paths of the subtrees to index")
+    static final String PROP_ROOTS = ResourceChangeListener.PATHS;
+
+    @Property(value = DEFAULT_SUB_SERVICE, label = "Sub service",
+        description = "The sub service to read the subtrees as, which should be able to read all of them")
+    static final String PROP_SUB_SERVICE = "index.subService";
+
+    @Reference
+    private TypedResourceResolverFactory resolverFactory;
+
+    private List<String> roots;
+    private String subService;
+    /** The generation of the index of this activation, which its tasks write to so that they can't write to a later one */
+    private volatile long generation;
+    private volatile ExecutorService indexer;
+
+    @Activate
+    protected void activate(Map<String, Object> config) {
+        roots = Arrays.asList(PropertiesUtil.toStringArray(config.get(PROP_ROOTS), new String[] { DEFAULT_ROOT }));
+        subService = PropertiesUtil.toString(config.get(PROP_SUB_SERVICE), DEFAULT_SUB_SERVICE);
+        generation = ResourceTypeIndex.enable(roots);
+        indexer = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "resource-type-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long gen = generation;
+        indexer.execute(() -> build(gen));
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        final ExecutorService executor = indexer;
+        indexer = null;
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Indexing of {} didn't stop within {}s", roots, TERMINATION_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ResourceTypeIndex.disable(generation);
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        final ExecutorService executor = indexer;
+        if (executor == null) {
+            return;
+        }
+        final long gen = generation;
+        try {
+            executor.execute(() -> apply(gen, changes));
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Ignoring {} changes as the indexer has been deactivated", changes.size());
+        }
+    }
+
+    private void build(long generation) {
+        final long start = System.currentTimeMillis();
+        try {
+            resolverFactory.execute(subService, resolver -> {
+                for (String root : roots) {
+                    index(resolver, root, generation);
+                }
+                return null;
+            });
+            ResourceTypeIndex.ready(generation);
+            LOGGER.info("Indexed {} resources under {} in {}ms", ResourceTypeIndex.size(), roots, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to index {}, finding resources by type will walk the tree", roots, e);
+        }
+    }
+
+    private void apply(long generation, List<ResourceChange> changes) {
+        try {
+            resolverFactory.execute(subService, resolver -> {
+                for (ResourceChange change : changes) {
+                    switch (change.getType()) {
+                    case ADDED:
+                        // the resource may have been moved here along with its descendants
+                        ResourceTypeIndex.remove(generation, change.getPath());
+                        index(resolver, change.getPath(), generation);
+                        break;
+                    case CHANGED:
+                        final Resource resource = resolver.getResource(change.getPath());
+                        if (resource == null) {
+                            ResourceTypeIndex.remove(generation, change.getPath());
+                        } else {
+                            ResourceTypeIndex.put(generation, resource.getPath(), resource.getResourceType());
+                        }
+                        break;
+                    case REMOVED:
+                        ResourceTypeIndex.remove(generation, change.getPath());
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to index {} changes, disabling the index as it may be stale", changes.size(), e);
+            ResourceTypeIndex.disable(generation);
+        }
+    }
+
+    private static void index(TypedResourceResolver resolver, String path, long generation) {
+        for (Resource resource : ResourceUtils.traverse(resolver.getResource(path))) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Interrupted while indexing " + path);
+            }
+            ResourceTypeIndex.put(generation, resource.getPath(), resource.getResourceType());
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceTypeIndexer.class);
+}
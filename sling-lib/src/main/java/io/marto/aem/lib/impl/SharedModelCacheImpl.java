@@ -0,0 +1,196 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.marto.aem.lib.CacheStats;
+import io.marto.aem.lib.SharedModelCache;
+import lombok.Value;
+
+@Component(metatype = true, label = "Shared Model Cache", description = "Caches @CacheableModel models, and lookups that found no model, across resolvers and requests")
+@Service({ SharedModelCache.class, ResourceChangeListener.class })
+@Properties({
+    @Property(name = ResourceChangeListener.PATHS, value = "/", propertyPrivate = true)
+})
+public class SharedModelCacheImpl implements SharedModelCache, ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final long DEFAULT_TTL_MILLIS = 300000L;
+    private static final int DEFAULT_MISSES_MAX_ENTRIES = 0;
+    private static final long DEFAULT_MISSES_TTL_MILLIS = 60000L;
+
+    @Property(intValue = DEFAULT_MAX_ENTRIES, label = "Max entries",
+        description = "Maximum number of models held across all partitions, 0 disables the cache")
+    static final String PROP_MAX_ENTRIES = "cache.maxEntries";
+
+    @Property(longValue = DEFAULT_TTL_MILLIS, label = "Time to live (ms)",
+        description = "Models are evicted this long after they have been cached even if their content hasn't changed")
+    static final String PROP_TTL_MILLIS = "cache.ttlMillis";
+
+    @Property(intValue = DEFAULT_MISSES_MAX_ENTRIES, label = "Max misses",
+        description = "Maximum number of lookups that found no model remembered across all partitions, 0 (the default) disables remembering misses")
+    static final String PROP_MISSES_MAX_ENTRIES = "cache.misses.maxEntries";
+
+    @Property(longValue = DEFAULT_MISSES_TTL_MILLIS, label = "Miss time to live (ms)",
+        description = "Misses are forgotten this long after they have been remembered even if their content hasn't changed")
+    static final String PROP_MISSES_TTL_MILLIS = "cache.misses.ttlMillis";
+
+    private volatile PathCache<ModelKey, Object> models;
+    private volatile PathCache<ModelKey, Boolean> misses;
+
+    @Activate
+    protected void activate(Map<String, Object> config) {
+        final int maxEntries = PropertiesUtil.toInteger(config.get(PROP_MAX_ENTRIES), DEFAULT_MAX_ENTRIES);
+        final long ttl = PropertiesUtil.toLong(config.get(PROP_TTL_MILLIS), DEFAULT_TTL_MILLIS);
+        models = maxEntries > 0 ? new PathCache<>(maxEntries, ttl, ModelKey::getPath) : null;
+        final int maxMisses = PropertiesUtil.toInteger(config.get(PROP_MISSES_MAX_ENTRIES), DEFAULT_MISSES_MAX_ENTRIES);
+        final long missTtl = PropertiesUtil.toLong(config.get(PROP_MISSES_TTL_MILLIS), DEFAULT_MISSES_TTL_MILLIS);
+        misses = maxMisses > 0 ? new PathCache<>(maxMisses, missTtl, ModelKey::getPath) : null;
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        models = null;
+        misses = null;
+    }
+
+    @Override
+    public @CheckForNull <T> T get(String partition, String path, Class<T> klass, String slingResourceType, Supplier<T> loader) {
+        final PathCache<ModelKey, Object> cache = models;
+        if (cache == null) {
+            return find(partition, path, klass, slingResourceType, loader);
+        }
+        final ModelKey key = new ModelKey(partition, path, klass, slingResourceType);
+        final Object cached = cache.get(key);
+        if (cached != null) {
+            return klass.cast(cached);
+        }
+        // taken before loading, so that a model loaded from content changed meanwhile isn't put back
+        final long stamp = cache.stamp();
+        final T model = find(key, loader);
+        if (model != null) {
+            cache.put(key, model, stamp);
+        }
+        return model;
+    }
+
+    @Override
+    public @CheckForNull <T> T find(String partition, String path, Class<T> klass, String slingResourceType, Supplier<T> loader) {
+        return misses == null ? loader.get() : find(new ModelKey(partition, path, klass, slingResourceType), loader);
+    }
+
+    @Override
+    public void invalidate(String path) {
+        final int evicted = invalidate(path, true);
+        LOGGER.debug("Evicted {} models and misses related to path={}", evicted, path);
+    }
+
+    @Override
+    public void clear() {
+        final PathCache<ModelKey, Object> cache = models;
+        final PathCache<ModelKey, Boolean> missed = misses;
+        if (cache != null) {
+            cache.clear();
+        }
+        if (missed != null) {
+            missed.clear();
+        }
+    }
+
+    @Override
+    public @Nonnull CacheStats getStats() {
+        final PathCache<ModelKey, Object> cache = models;
+        return cache == null ? CacheStats.DISABLED : cache.getStats();
+    }
+
+    @Override
+    public @Nonnull CacheStats getMissStats() {
+        final PathCache<ModelKey, Boolean> cache = misses;
+        return cache == null ? CacheStats.DISABLED : cache.getStats();
+    }
+
+    @Override
+    public void onChange(List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            // a model (or a miss) depends on the content at and below its own path, and adding or removing a subtree
+            // may only be reported for its root
+            invalidate(change.getPath(), change.getType() != ChangeType.CHANGED);
+        }
+    }
+
+    private <T> T find(ModelKey key, Supplier<T> loader) {
+        final PathCache<ModelKey, Boolean> cache = misses;
+        if (cache == null) {
+            return loader.get();
+        }
+        if (cache.get(key) != null) {
+            return null;
+        }
+        final long stamp = cache.stamp();
+        final T model = loader.get();
+        if (model == null) {
+            cache.put(key, Boolean.TRUE, stamp);
+        }
+        return model;
+    }
+
+    /**
+     * @return the number of models and misses removed
+     */
+    private int invalidate(String path, boolean descendants) {
+        final PathCache<ModelKey, Object> cache = models;
+        final PathCache<ModelKey, Boolean> missed = misses;
+        return (cache == null ? 0 : cache.invalidate(path, descendants)) + (missed == null ? 0 : missed.invalidate(path, descendants));
+    }
+
+    static boolean isAncestorOrSelf(String ancestor, String path) {
+        return path.startsWith(ancestor)
+            && (path.length() == ancestor.length() || ancestor.endsWith("/") || path.charAt(ancestor.length()) == '/');
+    }
+
+    @Value
+    private static class ModelKey {
+        private final String partition;
+        private final String path;
+        private final Class<?> klass;
+        private final String slingResourceType;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedModelCacheImpl.class);
+}
@@ -1,9 +1,28 @@
 package io.marto.aem.lib.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
 public class Streams {
+
+    /** The 1st batch split off an iterator of unknown size, small so that few (but expensive) elements still spread out */
+    static final int INITIAL_BATCH = 16;
+
+    /** The largest batch buffered by a split */
+    static final int MAX_BATCH = 1 << 12;
+
     /**
      * Converts Iterable to stream
      * @param iterable
@@ -14,13 +33,113 @@ public class Streams {
     }
 
     /**
-     * Converts Iterable to parallel stream
+     * Converts Iterable to parallel stream. The elements are split off in {@link #batchSpliterator(Iterable) growing batches},
+     * so that even a few children of a resource are spread over the workers.
      */
     public static <T> Stream<T> parallelStreamOf(final Iterable<T> iterable) {
         return toStream(iterable, true);
     }
 
+    /**
+     * A parallel stream of the children of <code>parent</code>, where each child is read through a
+     * {@link ResourceResolver#clone(Map) clone} of the resolver of <code>parent</code> owned by the worker thread, as a
+     * resolver isn't thread safe. The paths of the children are listed up front on the calling thread, so that the
+     * workers never use the resolver of <code>parent</code> while others clone it. The stream must be closed (i.e. try
+     * with resources) to close the clones, and the children must not be used outside of the pipeline.
+     *
+     * @param parent the resource whose children to stream
+     * @return the children of <code>parent</code>, each of the resolver of the worker consuming it
+     * @throws io.marto.aem.lib.RepositoryLoginException from the pipeline if the resolver can't be cloned
+     */
+    public static Stream<Resource> parallelChildrenOf(final Resource parent) {
+        final List<String> paths = new ArrayList<>();
+        for (Resource child : parent.getChildren()) {
+            paths.add(child.getPath());
+        }
+        final WorkerResolvers workers = new WorkerResolvers(parent.getResourceResolver());
+        return StreamSupport.stream(batchSpliterator(paths), true)
+            .map(path -> workers.get().getResource(path))
+            .filter(Objects::nonNull)
+            .onClose(workers::close);
+    }
+
+    /**
+     * A spliterator that splits <code>iterable</code> by buffering its elements in batches that double in size from
+     * {@link #INITIAL_BATCH}, up to {@link #MAX_BATCH}. Each batch is split evenly from then on. When the size of
+     * <code>iterable</code> is known (a {@link Collection}) the spliterator reports it, and splits half of what is left.
+     */
+    static <T> Spliterator<T> batchSpliterator(final Iterable<T> iterable) {
+        if (iterable instanceof Collection) {
+            return new BatchSpliterator<>(iterable.iterator(), ((Collection<T>) iterable).size(), Spliterator.ORDERED | Spliterator.SIZED);
+        }
+        return new BatchSpliterator<>(iterable.iterator(), -1, Spliterator.ORDERED);
+    }
+
     private static <T> Stream<T> toStream(final Iterable<T> iterable, final boolean isParallel) {
-        return StreamSupport.stream(iterable.spliterator(), isParallel);
+        return StreamSupport.stream(isParallel ? batchSpliterator(iterable) : iterable.spliterator(), isParallel);
+    }
+
+    private static final class BatchSpliterator<T> implements Spliterator<T> {
+        private final Iterator<? extends T> it;
+        private final int characteristics;
+        private long size;
+        private int batch = INITIAL_BATCH;
+
+        BatchSpliterator(Iterator<? extends T> it, long size, int characteristics) {
+            this.it = it;
+            this.size = size;
+            this.characteristics = characteristics;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            final boolean sized = hasCharacteristics(Spliterator.SIZED);
+            if ((sized && size < 2) || !it.hasNext()) {
+                return null;
+            }
+            final int n = (int) Math.min(sized ? size / 2 : batch, MAX_BATCH);
+            final Object[] buffer = new Object[n];
+            int j = 0;
+            while (j < n && it.hasNext()) {
+                buffer[j++] = it.next();
+            }
+            batch = Math.min(batch * 2, MAX_BATCH);
+            if (sized) {
+                size -= j;
+            }
+            return Spliterators.spliterator(buffer, 0, j, (characteristics & Spliterator.ORDERED) | Spliterator.SIZED | Spliterator.SUBSIZED);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (!it.hasNext()) {
+                return false;
+            }
+            action.accept(it.next());
+            if (size > 0) {
+                size--;
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            it.forEachRemaining(action);
+            size = 0;
+        }
+
+        /**
+         * The size if known, otherwise the size of the next batch. Streams size their tasks on the 1st estimate of a
+         * spliterator, so estimating an unknown size as {@link Long#MAX_VALUE} would leave every batch to a single worker.
+         */
+        @Override
+        public long estimateSize() {
+            return hasCharacteristics(Spliterator.SIZED) ? size : batch;
+        }
+
+        @Override
+        public int characteristics() {
+            return characteristics;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+import io.marto.aem.lib.RepositoryMetrics;
+import io.marto.aem.lib.SharedModelCache;
+import lombok.Getter;
+
+/**
+ * A {@link TypedResourceResolverImpl} handed out by {@link TypedResourceResolverFactoryImpl#getSubServiceResolver(String)}.
+ * Calling {@link #close()} hands the underlying resolver back to its {@link ResolverPool}, or logs it out when it isn't
+ * pooled; the instance must not be used after that. While it is open it is known to the {@link ResolverTracker}, if any.
+ */
+class SubServiceResolver extends TypedResourceResolverImpl {
+
+    private final @Getter String subService;
+    private final ResourceResolver resolver;
+    private final ResolverPool pool;
+    private final ResolverTracker tracker;
+    private final ResolverTracker.Tracked tracked;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** The metrics this resolver was counted as open in, so that only those count it as closed */
+    private final RepositoryMetrics[] countedIn;
+
+    SubServiceResolver(String subService, ResourceResolver resolver, @Nullable ResolverPool pool, SharedModelCache sharedModels,
+        @Nullable ResolverTracker tracker) {
+        super(resolver, false, sharedModels, TypedResourceResolverFactoryImpl.partitionOf(subService));
+        this.subService = subService;
+        this.resolver = resolver;
+        this.pool = pool;
+        this.tracker = tracker;
+        this.countedIn = Instrumentation.recordOpened(subService);
+        this.tracked = tracker != null ? tracker.opened(this, countedIn) : null;
+    }
+
+    @Override
+    public boolean isLive() {
+        return !closed.get() && resolver.isLive();
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (tracker != null) {
+                tracker.closed(tracked);
+            }
+            if (pool != null) {
+                pool.release(resolver);
+            } else {
+                resolver.close();
+            }
+            Instrumentation.recordClosed(subService, countedIn);
+        }
+    }
+
+    /**
+     * Close this resolver from another thread than the one using it. The underlying resolver is logged out rather than
+     * pooled, as it may still be in use.
+     */
+    void forceClose() {
+        if (closed.compareAndSet(false, true)) {
+            if (tracker != null) {
+                tracker.closed(tracked);
+            }
+            resolver.close();
+            Instrumentation.recordClosed(subService, countedIn);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the <code>k</code> least elements offered to it in the order of a {@link Comparator}, without holding more
+ * than <code>k</code> of them: O(n log k) time and O(k) memory rather than a full sort's O(n log n) and O(n).
+ *
+ * @param <E> the type of element
+ */
+class TopK<E> {
+
+    private final int k;
+    private final Comparator<? super E> order;
+    /** The selected elements, greatest first so that it's the one replaced */
+    private final PriorityQueue<E> heap;
+
+    TopK(int k, Comparator<? super E> order) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+        this.order = order;
+        this.heap = new PriorityQueue<>(Math.min(k, 1024), order.reversed());
+    }
+
+    void offer(E element) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (order.compare(element, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    /**
+     * @return the selected elements, least first
+     */
+    List<E> sorted() {
+        final List<E> ret = new ArrayList<>(heap);
+        ret.sort(order);
+        return ret;
+    }
+}
@@ -22,45 +22,315 @@ import static java.lang.String.format;
 import static java.util.Collections.singletonMap;
 import static org.apache.sling.api.resource.ResourceResolverFactory.SUBSERVICE;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
+import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import io.marto.aem.lib.BatchOptions;
+import io.marto.aem.lib.BatchTask;
 import io.marto.aem.lib.RepositoryLoginException;
 import io.marto.aem.lib.RepositoryTask;
+import io.marto.aem.lib.SharedModelCache;
 import io.marto.aem.lib.TypedResourceResolver;
 import io.marto.aem.lib.TypedResourceResolverFactory;
+import lombok.RequiredArgsConstructor;
 
-@Component
+@Component(metatype = true, label = "Typed Resource Resolver Factory", description = "Provides service user TypedResourceResolvers")
 @Service
 public class TypedResourceResolverFactoryImpl implements TypedResourceResolverFactory {
 
+    private static final boolean DEFAULT_POOL_ENABLED = false;
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final long DEFAULT_POOL_MAX_IDLE_MILLIS = 60000L;
+    private static final int DEFAULT_ASYNC_THREADS = 4;
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+    private static final boolean DEFAULT_TRACKING_ENABLED = false;
+    private static final long DEFAULT_TRACKING_MAX_LIFETIME_MILLIS = 300000L;
+    private static final boolean DEFAULT_TRACKING_FORCE_CLOSE = false;
+    private static final boolean DEFAULT_TRACKING_RECORD_SITE = true;
+
+    @Property(boolValue = DEFAULT_POOL_ENABLED, label = "Pool resolvers",
+        description = "Reuse logged in service resolvers per sub-service instead of logging in on every call")
+    static final String PROP_POOL_ENABLED = "resolver.pool.enabled";
+
+    @Property(intValue = DEFAULT_POOL_SIZE, label = "Pool size", description = "Maximum idle resolvers kept per sub-service")
+    static final String PROP_POOL_SIZE = "resolver.pool.size";
+
+    @Property(longValue = DEFAULT_POOL_MAX_IDLE_MILLIS, label = "Max idle (ms)",
+        description = "Idle resolvers older than this are closed rather than reused")
+    static final String PROP_POOL_MAX_IDLE_MILLIS = "resolver.pool.maxIdleMillis";
+
+    @Property(intValue = DEFAULT_ASYNC_THREADS, label = "Async threads",
+        description = "Maximum number of tasks run concurrently per sub-service by executeAsync / executeAll")
+    static final String PROP_ASYNC_THREADS = "async.threads";
+
+    @Property(intValue = DEFAULT_ASYNC_QUEUE_SIZE, label = "Async queue size",
+        description = "Maximum number of tasks waiting per sub-service before executeAsync rejects new ones")
+    static final String PROP_ASYNC_QUEUE_SIZE = "async.queueSize";
+
+    @Property(boolValue = DEFAULT_TRACKING_ENABLED, label = "Track resolvers",
+        description = "Keep track of the resolvers handed out by getSubServiceResolver and report the ones left open")
+    static final String PROP_TRACKING_ENABLED = "resolver.tracking.enabled";
+
+    @Property(longValue = DEFAULT_TRACKING_MAX_LIFETIME_MILLIS, label = "Max lifetime (ms)",
+        description = "Tracked resolvers still open after this long are reported as leaked")
+    static final String PROP_TRACKING_MAX_LIFETIME_MILLIS = "resolver.tracking.maxLifetimeMillis";
+
+    @Property(boolValue = DEFAULT_TRACKING_FORCE_CLOSE, label = "Close leaked resolvers",
+        description = "Close leaked resolvers, even though whoever opened them may still be using them")
+    static final String PROP_TRACKING_FORCE_CLOSE = "resolver.tracking.forceClose";
+
+    @Property(boolValue = DEFAULT_TRACKING_RECORD_SITE, label = "Record open site",
+        description = "Record the stack trace of where each tracked resolver was opened, to log along with its leak")
+    static final String PROP_TRACKING_RECORD_SITE = "resolver.tracking.recordSite";
+
     @Reference
     private ResourceResolverFactory resolverFactory;
 
+    @Reference
+    private SharedModelCache sharedModels;
+
+    private final ConcurrentMap<String, ResolverPool> pools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExecutorService> executors = new ConcurrentHashMap<>();
+    private boolean poolEnabled;
+    private int poolSize;
+    private long poolMaxIdleMillis;
+    private int asyncThreads;
+    private int asyncQueueSize;
+    private volatile ResolverTracker tracker;
+
+    @Activate
+    protected void activate(Map<String, Object> config) {
+        poolEnabled = PropertiesUtil.toBoolean(config.get(PROP_POOL_ENABLED), DEFAULT_POOL_ENABLED);
+        poolSize = PropertiesUtil.toInteger(config.get(PROP_POOL_SIZE), DEFAULT_POOL_SIZE);
+        poolMaxIdleMillis = PropertiesUtil.toLong(config.get(PROP_POOL_MAX_IDLE_MILLIS), DEFAULT_POOL_MAX_IDLE_MILLIS);
+        asyncThreads = Math.max(1, PropertiesUtil.toInteger(config.get(PROP_ASYNC_THREADS), DEFAULT_ASYNC_THREADS));
+        asyncQueueSize = Math.max(1, PropertiesUtil.toInteger(config.get(PROP_ASYNC_QUEUE_SIZE), DEFAULT_ASYNC_QUEUE_SIZE));
+        if (PropertiesUtil.toBoolean(config.get(PROP_TRACKING_ENABLED), DEFAULT_TRACKING_ENABLED)) {
+            tracker = new ResolverTracker(
+                PropertiesUtil.toLong(config.get(PROP_TRACKING_MAX_LIFETIME_MILLIS), DEFAULT_TRACKING_MAX_LIFETIME_MILLIS),
+                PropertiesUtil.toBoolean(config.get(PROP_TRACKING_FORCE_CLOSE), DEFAULT_TRACKING_FORCE_CLOSE),
+                PropertiesUtil.toBoolean(config.get(PROP_TRACKING_RECORD_SITE), DEFAULT_TRACKING_RECORD_SITE),
+                Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("typed-resolver-tracker")));
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (tracker != null) {
+            tracker.close();
+            tracker = null;
+        }
+        for (ExecutorService executor : executors.values()) {
+            executor.shutdown();
+        }
+        executors.clear();
+        for (ResolverPool pool : pools.values()) {
+            LOGGER.info("Shutting down {}", pool);
+            pool.close();
+        }
+        pools.clear();
+    }
+
     @Override
     public @Nonnull TypedResourceResolver getSubServiceResolver(String subService) throws RepositoryLoginException {
+        return open(subService, tracker);
+    }
+
+    @Override
+    public @Nonnull TypedResourceResolver wrap(ResourceResolver resolver, boolean memoize) {
+        final String userId = resolver.getUserID();
+        return new TypedResourceResolverImpl(resolver, memoize, sharedModels, userId == null ? null : "user:" + userId);
+    }
+
+    @Override
+    public @Nonnull SharedModelCache getSharedModelCache() {
+        return sharedModels;
+    }
+
+    @Override
+    public <T, E extends Exception> T execute(String srvc, RepositoryTask<T, E> action) throws E, RepositoryLoginException {
+        // not tracked, as it is always closed here
+        final TypedResourceResolver resolver = open(srvc, null);
+        final long start = Instrumentation.start();
+        boolean success = false;
         try {
-            return new TypedResourceResolverImpl(resolverFactory.getServiceResourceResolver(singletonMap(SUBSERVICE, (Object) subService)));
-        } catch (LoginException e) {
-            throw new RepositoryLoginException(format("Failed to access repository as '%s': %s", subService, e.getMessage()),e);
+            final T ret = action.run(resolver);
+            success = true;
+            return ret;
+        } finally {
+            Instrumentation.recordTask(start, srvc, success);
+            if (resolver.isLive()) {
+                resolver.close();
+            }
         }
     }
 
     @Override
-    public <T, E extends Exception> T execute(String srvc, RepositoryTask<T, E> action) throws E, RepositoryLoginException {
-        TypedResourceResolver resolver = null;
+    public <T, E extends Exception> T executeBatched(String srvc, BatchOptions options, BatchTask<T, E> task)
+        throws E, PersistenceException, RepositoryLoginException {
+        final TypedResourceResolver resolver = open(srvc, null);
+        final long start = Instrumentation.start();
+        boolean success = false;
         try {
-            resolver = getSubServiceResolver(srvc);
-            return action.run(new TypedResourceResolverImpl(resolver));
+            final BatchImpl batch = new BatchImpl(resolver, options);
+            final T ret = task.run(resolver, batch);
+            batch.finish();
+            success = true;
+            return ret;
         } finally {
-            if (resolver != null && resolver.isLive()) {
+            Instrumentation.recordTask(start, srvc, success);
+            if (resolver.isLive()) {
                 resolver.close();
             }
         }
     }
+
+    @Override
+    public @Nonnull <T, E extends Exception> CompletableFuture<T> executeAsync(String srvc, RepositoryTask<T, E> action) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor(srvc).execute(() -> {
+                if (future.isDone()) {
+                    return; // cancelled before it got a chance to run
+                }
+                try {
+                    future.complete(execute(srvc, action));
+                } catch (Exception | Error e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public @Nonnull <T, E extends Exception> CompletableFuture<List<T>> executeAll(String srvc, Collection<? extends RepositoryTask<T, E>> actions) {
+        final List<CompletableFuture<T>> futures = actions.stream()
+            .map(action -> executeAsync(srvc, action))
+            .collect(Collectors.toList());
+        final CompletableFuture<List<T>> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+            .thenApply(ignore -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        futures.forEach(future -> future.whenComplete((result, e) -> {
+            if (e != null) {
+                all.completeExceptionally(e);
+            }
+        }));
+        all.whenComplete((result, e) -> {
+            if (e != null) {
+                futures.forEach(future -> future.cancel(false));
+            }
+        });
+        return all;
+    }
+
+    /**
+     * @param subService the "Sub Service"
+     * @return the resolver pool of <code>subService</code>, null if pooling is disabled or it hasn't been used yet
+     */
+    @CheckForNull ResolverPool getPool(String subService) {
+        return pools.get(subService);
+    }
+
+    /**
+     * @return the resolver pools of the sub-services used so far, empty if pooling is disabled
+     */
+    @Nonnull Collection<ResolverPool> getPools() {
+        return Collections.unmodifiableCollection(pools.values());
+    }
+
+    /**
+     * @return the tracker of the resolvers handed out by {@link #getSubServiceResolver(String)}, null if tracking is disabled
+     */
+    @CheckForNull ResolverTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * @return the partition of the {@link SharedModelCache} models loaded by <code>subService</code> are kept in
+     */
+    static String partitionOf(String subService) {
+        return "service:" + subService;
+    }
+
+    private ExecutorService executor(String subService) {
+        return executors.computeIfAbsent(subService, srvc -> {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(asyncQueueSize), new NamedThreadFactory("typed-resolver-" + srvc));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    /**
+     * @param track the tracker of the new resolver, null to not track it
+     */
+    private @Nonnull SubServiceResolver open(String subService, @Nullable ResolverTracker track) throws RepositoryLoginException {
+        if (poolEnabled && poolSize > 0) {
+            final ResolverPool pool = pools.computeIfAbsent(subService,
+                srvc -> new ResolverPool(srvc, poolSize, poolMaxIdleMillis, () -> login(srvc)));
+            return new SubServiceResolver(subService, pool.checkout(), pool, sharedModels, track);
+        }
+        return new SubServiceResolver(subService, login(subService), null, sharedModels, track);
+    }
+
+    private @Nonnull ResourceResolver login(String subService) throws RepositoryLoginException {
+        final long start = Instrumentation.start();
+        try {
+            final ResourceResolver ret = resolverFactory.getServiceResourceResolver(singletonMap(SUBSERVICE, (Object) subService));
+            Instrumentation.recordLogin(start, subService, true);
+            return ret;
+        } catch (LoginException e) {
+            Instrumentation.recordLogin(start, subService, false);
+            throw new RepositoryLoginException(format("Failed to access repository as '%s': %s", subService, e.getMessage()),e);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TypedResourceResolverFactoryImpl.class);
 }
@@ -19,28 +19,100 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 package io.marto.aem.lib.impl;
 
 import static io.marto.aem.lib.ResourceUtils.adapt;
+import static io.marto.aem.lib.ResourceUtils.streamDescendants;
 import static io.marto.aem.lib.impl.Streams.streamOf;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
 
+import io.marto.aem.lib.CacheStats;
+import io.marto.aem.lib.CacheableModel;
+import io.marto.aem.lib.ModelPage;
+import io.marto.aem.lib.ModelSelector;
+import io.marto.aem.lib.PageRequest;
+import io.marto.aem.lib.ProjectedRow;
+import io.marto.aem.lib.Projection;
+import io.marto.aem.lib.RepositoryLoginException;
+import io.marto.aem.lib.SharedModelCache;
 import io.marto.aem.lib.TypedResourceResolver;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.experimental.Delegate;
 
-@RequiredArgsConstructor
 public class TypedResourceResolverImpl implements TypedResourceResolver {
 
-    private final @Delegate ResourceResolver delegate;
+    private static final Object NO_MODEL = new Object();
+
+    /** Subtrees of up to this many resources are walked by {@link #searchModels(String, Class, String, Map)} rather than queried */
+    private static final int SEARCH_WALK_BUDGET = 1000;
+
+    private static final ClassValue<Boolean> CACHEABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> klass) {
+            return klass.isAnnotationPresent(CacheableModel.class);
+        }
+    };
+
+    private final @Delegate(excludes = NotDelegated.class) ResourceResolver delegate;
+
+    /** Memoized models (or {@link #NO_MODEL}), null if memoization is disabled */
+    private final Map<ModelKey, Object> models;
+    private long hits;
+    private long misses;
+
+    /** The cache of {@link CacheableModel cacheable models}, null if not shared */
+    private final SharedModelCache sharedModels;
+    private final String partition;
+
+    /**
+     * Whether this resolver has committed changes, which the shared models only learn of once their change events are
+     * delivered, so until then they may still hold what this resolver has since changed
+     */
+    private boolean committed;
+
+    /** The search path of {@link #delegate}, read once as {@link ResourceResolver#getSearchPath()} returns a copy */
+    private String[] searchPath;
+
+    public TypedResourceResolverImpl(ResourceResolver delegate) {
+        this(delegate, false, null, null);
+    }
+
+    /**
+     * @param delegate the resolver to wrap
+     * @param memoize whether to memoize model lookups until the next {@link #refresh()}, {@link #commit()} or {@link #revert()}
+     * @param sharedModels where {@link CacheableModel cacheable models} are shared with other resolvers, null to not share them
+     * @param partition the access rights partition of <code>delegate</code> in <code>sharedModels</code>
+     */
+    public TypedResourceResolverImpl(ResourceResolver delegate, boolean memoize, @Nullable SharedModelCache sharedModels, @Nullable String partition) {
+        this.delegate = delegate;
+        this.models = memoize ? new HashMap<>() : null;
+        this.sharedModels = partition == null ? null : sharedModels;
+        this.partition = partition;
+    }
 
     @Override
     public @Nullable <T> T findModel(String path, Class<T> klass, String slingResourceType) {
@@ -48,7 +120,75 @@ public class TypedResourceResolverImpl implements TypedResourceResolver {
             throw new IllegalArgumentException();
         }
 
-        return adapt(getResource(path), klass, slingResourceType);
+        return memoized(path, klass, slingResourceType, () -> getResource(path));
+    }
+
+    @Override
+    public @Nonnull <T> List<T> findModels(Collection<String> paths, Class<T> klass, String slingResourceType) {
+        final Map<String, T> found = findModelMap(paths, klass, slingResourceType);
+        final List<T> ret = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            ret.add(found.get(path));
+        }
+        return ret;
+    }
+
+    @Override
+    public @Nonnull <T> Map<String, T> findModelMap(Collection<String> paths, Class<T> klass, String slingResourceType) {
+        if (paths == null || klass == null || isBlank(slingResourceType)) {
+            throw new IllegalArgumentException();
+        }
+
+        // group the distinct paths by parent, with parents and siblings in path (not repository) order, so that the lookups
+        // are deterministic whatever order the paths are given in
+        final Map<String, Set<String>> byParent = new TreeMap<>();
+        for (String path : paths) {
+            if (isBlank(path)) {
+                throw new IllegalArgumentException();
+            }
+            final String parent = path.startsWith("/") ? ResourceUtil.getParent(path) : null;
+            byParent.computeIfAbsent(parent == null ? "" : parent, p -> new TreeSet<>()).add(path);
+        }
+
+        final Map<String, T> found = new HashMap<>();
+        for (Map.Entry<String, Set<String>> group : byParent.entrySet()) {
+            // only looked up if a model of the group isn't memoized or shared
+            final Lookup parent = new Lookup(group.getKey());
+            for (String path : group.getValue()) {
+                final T model = memoized(path, klass, slingResourceType, () -> {
+                    final Resource resource = parent.get();
+                    return resource == null ? getResource(path) : resource.getChild(ResourceUtil.getName(path));
+                });
+                if (model != null) {
+                    found.put(path, model);
+                }
+            }
+        }
+
+        final Map<String, T> ret = new LinkedHashMap<>();
+        for (String path : paths) {
+            final T model = found.get(path);
+            if (model != null) {
+                ret.put(path, model);
+            }
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public @Nullable <T> T findModel(ModelSelector<T> selector) {
+        final String parentPath = parentPathOf(selector);
+        final String path = selector.resolve(parentPath);
+        return memoized(path, selector.getKlass(), selector.getSlingResourceType(), () -> getResource(path));
+    }
+
+    @Override
+    public @Nullable <T> T findModel(@Nullable Resource resource, ModelSelector<T> selector) {
+        if (selector == null) {
+            throw new IllegalArgumentException();
+        }
+
+        return resource == null ? null : model(resource, selector);
     }
 
     @Override
@@ -57,24 +197,310 @@ public class TypedResourceResolverImpl implements TypedResourceResolver {
             .collect(Collectors.toList());
     }
 
+    @Override
+    public @Nonnull <T> List<T> listModelChildren(ModelSelector<T> selector) {
+        return streamModelChildren(selector)
+            .collect(Collectors.toList());
+    }
+
     @Override
     public @Nonnull <T> Stream<T> streamModelChildren(String parentPath, String subPath, Class<T> klass, String slingResourceType) {
         if (isBlank(parentPath) || isBlank(subPath) || klass == null || isBlank(slingResourceType)) {
             throw new IllegalArgumentException();
         }
 
+        return streamModelChildren(ModelSelector.of(klass, slingResourceType).under(parentPath).withSubPath(subPath));
+    }
+
+    @Override
+    public @Nonnull <T> Stream<T> streamModelChildren(ModelSelector<T> selector) {
+        final Resource resource = getResource(parentPathOf(selector));
+        if (resource == null) {
+            return Stream.empty();
+        }
+
+        return streamOf(resource.getChildren())
+            .map(child -> model(child, selector))
+            .filter(Objects::nonNull);
+    }
+
+    @Override
+    public @Nullable ProjectedRow findProjection(String path, String slingResourceType, Projection projection) {
+        if (isBlank(path) || isBlank(slingResourceType) || projection == null) {
+            throw new IllegalArgumentException();
+        }
+
+        final Resource resource = getResource(path);
+        return isResourceType(resource, slingResourceType) ? projection.read(resource) : null;
+    }
+
+    @Override
+    public @Nonnull Stream<ProjectedRow> streamProjectedChildren(String parentPath, @Nullable String subPath, String slingResourceType,
+        Projection projection) {
+        if (isBlank(parentPath) || isBlank(slingResourceType) || projection == null) {
+            throw new IllegalArgumentException();
+        }
+
         final Resource resource = getResource(parentPath);
         if (resource == null) {
             return Stream.empty();
         }
 
+        final boolean self = isBlank(subPath);
         return streamOf(resource.getChildren())
-            .map(child -> adapt(child.getChild(subPath), klass, slingResourceType))
+            .map(child -> self ? child : child.getChild(subPath))
+            .filter(child -> isResourceType(child, slingResourceType))
+            .map(projection::read);
+    }
+
+    @Override
+    public @Nonnull <T> ModelPage<T> pageModelChildren(String parentPath, String subPath, Class<T> klass, String slingResourceType,
+        PageRequest page) {
+        if (isBlank(parentPath) || isBlank(subPath) || klass == null || isBlank(slingResourceType) || page == null) {
+            throw new IllegalArgumentException();
+        }
+
+        final Resource resource = getResource(parentPath);
+        if (resource == null) {
+            return new ModelPage<>(Collections.emptyList(), page, 0);
+        }
+
+        final int end = (int) Math.min(Integer.MAX_VALUE, (long) page.getOffset() + page.getLimit());
+        final List<Resource> window = new ArrayList<>(Math.min(page.getLimit(), 1024));
+        final TopK<Ranked> top = page.getSortProperty() == null ? null : new TopK<>(end, Ranked.order(page.isDescending()));
+        int total = 0;
+        for (Resource child : resource.getChildren()) {
+            final Resource candidate = child.getChild(subPath);
+            if (!isResourceType(candidate, slingResourceType)) {
+                continue;
+            }
+            if (top != null) {
+                top.offer(new Ranked(candidate, candidate.getValueMap().get(page.getSortProperty()), total));
+            } else if (total >= page.getOffset() && total < end) {
+                window.add(candidate);
+            }
+            total++;
+        }
+        if (top != null) {
+            final List<Ranked> ranked = top.sorted();
+            for (Ranked entry : ranked.subList(Math.min(page.getOffset(), ranked.size()), ranked.size())) {
+                window.add(entry.resource);
+            }
+        }
+
+        final List<T> models = new ArrayList<>(window.size());
+        for (Resource candidate : window) {
+            final T model = memoized(candidate.getPath(), klass, slingResourceType, () -> candidate);
+            if (model != null) {
+                models.add(model);
+            }
+        }
+        return new ModelPage<>(Collections.unmodifiableList(models), page, total);
+    }
+
+    @Override
+    public @Nonnull <T> Stream<T> searchModels(String basePath, Class<T> klass, String slingResourceType, Map<String, ?> properties) {
+        if (isBlank(basePath) || !basePath.startsWith("/") || klass == null || isBlank(slingResourceType) || properties == null) {
+            throw new IllegalArgumentException();
+        }
+
+        return new ModelSearch(this, basePath, slingResourceType, properties, SEARCH_WALK_BUDGET).resources()
+            .map(res -> memoized(res.getPath(), klass, slingResourceType, () -> res))
             .filter(Objects::nonNull);
     }
 
+    @Override
+    public @Nonnull <T> List<T> findDescendantModels(String basePath, Class<T> klass, String slingResourceType) {
+        return descendantModels(basePath, klass, slingResourceType)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public @Nullable <T> T findFirstDescendantModel(String basePath, Class<T> klass, String slingResourceType) {
+        return descendantModels(basePath, klass, slingResourceType)
+            .findFirst()
+            .orElse(null);
+    }
+
+    @Override
+    public @Nonnull <T, R> List<R> mapModelChildren(String parentPath, String subPath, Class<T> klass, String slingResourceType,
+        Function<? super T, ? extends R> mapper, int parallelism) throws RepositoryLoginException {
+        if (isBlank(parentPath) || isBlank(subPath) || klass == null || isBlank(slingResourceType) || mapper == null || parallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        final Resource resource = getResource(parentPath);
+        if (resource == null) {
+            return Collections.emptyList();
+        }
+
+        final String parent = resource.getPath();
+        final List<R> ret = new ParallelTreeWalker<R>(parallelism, 1, res -> false, child -> {
+            if (child.getPath().equals(parent)) {
+                return null;
+            }
+            final T model = adapt(child.getChild(subPath), klass, slingResourceType);
+            return model == null ? null : mapper.apply(model);
+        }).walk(resource);
+        return Collections.unmodifiableList(ret);
+    }
+
+    @Override
+    public @Nonnull CacheStats getModelCacheStats() {
+        return models == null ? CacheStats.DISABLED : new CacheStats(hits, misses, models.size());
+    }
+
+    @Override
+    public boolean isResourceType(Resource resource, String resourceType) {
+        if (searchPath == null) {
+            searchPath = delegate.getSearchPath();
+        }
+        return ResourceTypeCache.isResourceType(resource, resourceType, searchPath);
+    }
+
+    @Override
+    public void refresh() {
+        clearModels();
+        delegate.refresh();
+    }
+
+    @Override
+    public void commit() throws PersistenceException {
+        clearModels();
+        committed |= delegate.hasChanges();
+        delegate.commit();
+    }
+
+    @Override
+    public void revert() {
+        clearModels();
+        delegate.revert();
+    }
+
     @Override
     public String toString() {
         return delegate.toString();
     }
+
+    private <T> Stream<T> descendantModels(String basePath, Class<T> klass, String slingResourceType) {
+        if (isBlank(basePath) || klass == null || isBlank(slingResourceType)) {
+            throw new IllegalArgumentException();
+        }
+
+        return streamDescendants(getResource(basePath), slingResourceType)
+            .map(res -> memoized(res.getPath(), klass, slingResourceType, () -> res))
+            .filter(Objects::nonNull);
+    }
+
+    /**
+     * @return the model of <code>selector</code> relative to <code>resource</code>, only building its path if it's needed
+     *         as a key of the memoized or shared models. Misses of models that aren't cacheable aren't remembered here,
+     *         as <code>resource</code> has already been read.
+     */
+    private @CheckForNull <T> T model(Resource resource, ModelSelector<T> selector) {
+        final Class<T> klass = selector.getKlass();
+        if (models == null && (sharedModels == null || !CACHEABLE.get(klass))) {
+            return adapt(selector.resolve(resource), klass, selector.getSlingResourceType());
+        }
+        return memoized(selector.resolve(resource.getPath()), klass, selector.getSlingResourceType(), () -> selector.resolve(resource));
+    }
+
+    private static String parentPathOf(ModelSelector<?> selector) {
+        if (selector == null || selector.getParentPath() == null) {
+            throw new IllegalArgumentException("No parent path in " + selector);
+        }
+        return selector.getParentPath();
+    }
+
+    private @CheckForNull <T> T memoized(String path, Class<T> klass, String slingResourceType, Supplier<Resource> lookup) {
+        if (models == null) {
+            return shared(path, klass, slingResourceType, lookup);
+        }
+        final ModelKey key = new ModelKey(path, klass, slingResourceType);
+        final Object model = models.get(key);
+        if (model != null) {
+            hits++;
+            return model == NO_MODEL ? null : klass.cast(model);
+        }
+        misses++;
+        final T adapted = shared(path, klass, slingResourceType, lookup);
+        models.put(key, adapted == null ? NO_MODEL : adapted);
+        return adapted;
+    }
+
+    /**
+     * @return the model from the shared models, or only checked against their remembered misses if it isn't
+     *         {@link CacheableModel cacheable}. Neither is used once this resolver has changes, committed or not, so that
+     *         it reads its own writes.
+     */
+    private @CheckForNull <T> T shared(String path, Class<T> klass, String slingResourceType, Supplier<Resource> lookup) {
+        if (sharedModels == null || klass == null || committed || delegate.hasChanges()) {
+            return adapt(lookup.get(), klass, slingResourceType);
+        }
+        final Supplier<T> loader = () -> adapt(lookup.get(), klass, slingResourceType);
+        return CACHEABLE.get(klass)
+            ? sharedModels.get(partition, path, klass, slingResourceType, loader)
+            : sharedModels.find(partition, path, klass, slingResourceType, loader);
+    }
+
+    private void clearModels() {
+        if (models != null) {
+            models.clear();
+        }
+    }
+
+    /** A resource looked up on first use, none for the empty path */
+    @RequiredArgsConstructor
+    private final class Lookup implements Supplier<Resource> {
+        private final String path;
+        private boolean done;
+        private Resource resource;
+
+        @Override
+        public Resource get() {
+            if (!done) {
+                resource = path.isEmpty() ? null : getResource(path);
+                done = true;
+            }
+            return resource;
+        }
+    }
+
+    /** The {@link ResourceResolver} methods this class implements itself */
+    private interface NotDelegated {
+        void refresh();
+        void commit() throws PersistenceException;
+        void revert();
+        boolean isResourceType(Resource resource, String resourceType);
+    }
+
+    /** A child resource ranked by the value of its sort property, then its position in repository order */
+    @RequiredArgsConstructor
+    private static final class Ranked {
+        private final Resource resource;
+        private final Object key;
+        private final int position;
+
+        static Comparator<Ranked> order(boolean descending) {
+            final Comparator<Object> keys = descending ? (a, b) -> compareKeys(b, a) : Ranked::compareKeys;
+            return Comparator.<Ranked, Object>comparing(ranked -> ranked.key, Comparator.nullsLast(keys))
+                .thenComparingInt(ranked -> ranked.position);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareKeys(Object a, Object b) {
+            if (a instanceof Comparable && a.getClass().isInstance(b)) {
+                return ((Comparable<Object>) a).compareTo(b);
+            }
+            // values of mixed types, i.e. a property that's a Long on some resources and a String on others
+            return String.valueOf(a).compareTo(String.valueOf(b));
+        }
+    }
+
+    @Value
+    private static class ModelKey {
+        private final String path;
+        private final Class<?> klass;
+        private final String slingResourceType;
+    }
 }
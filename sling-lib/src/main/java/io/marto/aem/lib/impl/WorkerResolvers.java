@@ -0,0 +1,84 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+
+import io.marto.aem.lib.RepositoryLoginException;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * One {@link ResourceResolver#clone(Map) clone} of a resolver per thread, for reading the repository from many threads
+ * at once as a resolver isn't thread safe. The clones are created on first use and are all closed by {@link #close()},
+ * after which no more are created. The resolver is only cloned while holding its monitor, as cloning reads its state;
+ * the caller must not use it otherwise while workers may still be cloning it.
+ */
+@RequiredArgsConstructor
+class WorkerResolvers implements AutoCloseable {
+
+    private final ResourceResolver resolver;
+    private final Map<Thread, ResourceResolver> workers = new ConcurrentHashMap<>();
+    /** All the clones, guarded by the monitor of {@link #resolver} like {@link #closed} */
+    private final List<ResourceResolver> clones = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @return the clone of the calling thread
+     * @throws RepositoryLoginException if the resolver can't be cloned
+     * @throws IllegalStateException if the clones have been closed
+     */
+    ResourceResolver get() throws RepositoryLoginException {
+        return workers.computeIfAbsent(Thread.currentThread(), thread -> {
+            synchronized (resolver) {
+                if (closed) {
+                    throw new IllegalStateException("Worker resolvers of '" + resolver.getUserID() + "' are closed");
+                }
+                try {
+                    final ResourceResolver clone = resolver.clone(null);
+                    clones.add(clone);
+                    return clone;
+                } catch (LoginException e) {
+                    throw new RepositoryLoginException(format("Failed to clone resolver of '%s': %s", resolver.getUserID(), e.getMessage()), e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        final List<ResourceResolver> toClose;
+        synchronized (resolver) {
+            closed = true;
+            toClose = new ArrayList<>(clones);
+            clones.clear();
+        }
+        for (ResourceResolver worker : toClose) {
+            worker.close();
+        }
+        workers.clear();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentSnapshotTest {
+
+    private static final String TYPE = "test/components/page";
+
+    private final ResourceResolver resolver = mock(ResourceResolver.class);
+    private final Map<String, Resource> resources = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> properties = new LinkedHashMap<>();
+    private Calendar created;
+
+    @Before
+    public void setUp() {
+        when(resolver.getResource(anyString())).thenAnswer(inv -> resources.get(inv.getArguments()[0]));
+        created = new GregorianCalendar(TimeZone.getTimeZone("Europe/Sofia"));
+        created.setTimeInMillis(1500000000123L);
+
+        add("/content/site", TYPE, "jcr:title", "Site");
+        add("/content/site/en", TYPE, "jcr:title", "English", "rank", 1L, "ratio", 0.5d, "hidden", false,
+            "created", created, "tags", new String[] { "a", "b" });
+        add("/content/site/en/jcr:content", null, "count", 42, "modified", new Date(1500000000000L),
+            "dates", new Object[] { created }, "data", new ByteArrayInputStream(new byte[1]));
+        // ordered apart from their UTF-8 bytes by UTF-16 (a surrogate pair sorts before U+FFxx)
+        add("/content/site/Ａ", TYPE, "jcr:title", "Fullwidth");
+        add("/content/site/😀", TYPE, "jcr:title", "Emoji");
+        add("/content/site/en-gb", TYPE);
+        add("/content/sitemap", TYPE);
+    }
+
+    @Test
+    public void readsBackEveryNodeAndProperty() {
+        final ContentSnapshot snapshot = ContentSnapshot.of(resources.get("/content/site"));
+        assertEquals(6, snapshot.size());
+        assertEquals("/content/site", snapshot.getRootPath());
+        assertTrue(snapshot.getByteSize() > 0);
+
+        for (String path : resources.keySet()) {
+            if (!path.startsWith("/content/site/") && !path.equals("/content/site")) {
+                assertNull(snapshot.getNode(path));
+                continue;
+            }
+            final SnapshotNode node = snapshot.getNode(path);
+            assertEquals(path, node.getPath());
+            assertEquals(ResourceUtil.getName(path), node.getName());
+            assertEquals(resources.get(path).getResourceType(), node.getResourceType());
+            assertEquals(children(path), paths(node.getChildren()));
+            if (!path.equals("/content/site")) {
+                assertEquals(ResourceUtil.getParent(path), node.getParent().getPath());
+            }
+        }
+        assertNull(snapshot.getRoot().getParent());
+        assertNull(snapshot.getNode("/content/site/fr"));
+
+        final SnapshotNode en = snapshot.getRoot().getChild("en");
+        assertEquals(asList("sling:resourceType", "jcr:title", "rank", "ratio", "hidden", "created", "tags"), en.getPropertyNames());
+        assertEquals("English", en.getString("jcr:title"));
+        assertEquals(Long.valueOf(1), en.getLong("rank"));
+        assertEquals("1", en.getString("rank"));
+        assertEquals(Double.valueOf(0.5), en.getDouble("ratio"));
+        assertEquals(Boolean.FALSE, en.getBoolean("hidden"));
+        assertEquals(created.getTimeInMillis(), en.getDate("created").getTimeInMillis());
+        assertArrayEquals(new String[] { "a", "b" }, en.getStrings("tags"));
+        assertEquals("a", en.getString("tags"));
+        assertNull(en.get("missing"));
+
+        final SnapshotNode content = en.getChild("jcr:content");
+        assertEquals(Long.valueOf(42), content.getLong("count"));
+        assertEquals(1500000000000L, content.getDate("modified").getTimeInMillis());
+        assertArrayEquals(new String[] { "2017-07-14T05:40:00.123+03:00" }, content.getStrings("dates"));
+        assertFalse(content.getPropertyNames().contains("data"));
+
+        assertEquals("Emoji", snapshot.getNode("/content/site/😀").getString("jcr:title"));
+        assertEquals("Fullwidth", snapshot.getNode("/content/site/Ａ").getString("jcr:title"));
+    }
+
+    @Test
+    public void appliesChangesInTheSubtree() {
+        final ContentSnapshot snapshot = ContentSnapshot.of(resources.get("/content/site"));
+
+        assertSame(snapshot, snapshot.update(resolver, asList(change(ChangeType.CHANGED, "/content/sitemap"))));
+
+        properties.get("/content/site/en").put("jcr:title", "British");
+        add("/content/site/en/news", TYPE, "jcr:title", "News");
+        add("/content/site/en/news/today", TYPE);
+        remove("/content/site/en-gb");
+        final ContentSnapshot updated = snapshot.update(resolver, asList(
+            change(ChangeType.CHANGED, "/content/site/en"),
+            change(ChangeType.ADDED, "/content/site/en/news"),
+            change(ChangeType.REMOVED, "/content/site/en-gb")));
+
+        assertEquals(7, updated.size());
+        assertEquals("British", updated.getNode("/content/site/en").getString("jcr:title"));
+        assertEquals(asList("/content/site/en/jcr:content", "/content/site/en/news"), paths(updated.getNode("/content/site/en").getChildren()));
+        assertEquals("News", updated.getNode("/content/site/en/news").getString("jcr:title"));
+        assertEquals("/content/site/en/news", updated.getNode("/content/site/en/news/today").getParent().getPath());
+        assertNull(updated.getNode("/content/site/en-gb"));
+        assertEquals(children("/content/site"), paths(updated.getRoot().getChildren()));
+        assertEquals(Long.valueOf(42), updated.getNode("/content/site/en/jcr:content").getLong("count"));
+
+        // the snapshot updated from is left as it was
+        assertEquals(6, snapshot.size());
+        assertEquals("English", snapshot.getNode("/content/site/en").getString("jcr:title"));
+    }
+
+    @Test
+    public void removesTheRoot() {
+        final ContentSnapshot snapshot = ContentSnapshot.of(resources.get("/content/site"));
+        remove("/content/site");
+        final ContentSnapshot updated = snapshot.update(resolver, asList(change(ChangeType.REMOVED, "/content/site")));
+        assertEquals(0, updated.size());
+        assertNull(updated.getRoot());
+
+        // along with an ancestor, whereas a change of the ancestor's properties doesn't touch the subtree
+        assertSame(snapshot, snapshot.update(resolver, asList(change(ChangeType.CHANGED, "/content"))));
+        assertEquals(0, snapshot.update(resolver, asList(change(ChangeType.REMOVED, "/content"))).size());
+    }
+
+    @Test
+    public void keepsUpdatesInAnOverlayOverTheBase() {
+        add("/content/site/en/news", TYPE);
+        for (int i = 0; i < 100; i++) {
+            add("/content/site/en/news/item" + i, TYPE, "jcr:title", "Item " + i);
+        }
+        final ContentSnapshot snapshot = ContentSnapshot.of(resources.get("/content/site"));
+        assertEquals(107, snapshot.size());
+
+        properties.get("/content/site/en/news/item5").put("jcr:title", "Changed");
+        add("/content/site/en/news/item5/jcr:content", null, "text", "Body");
+        ContentSnapshot updated = snapshot.update(resolver, asList(
+            change(ChangeType.CHANGED, "/content/site/en/news/item5"),
+            change(ChangeType.ADDED, "/content/site/en/news/item5/jcr:content")));
+        assertSameContent(ContentSnapshot.of(resources.get("/content/site")), updated);
+        // only the changed nodes were read again, the buffer of the snapshot is shared
+        assertEquals(2, updated.getOverlaySize());
+        assertTrue(updated.getByteSize() - snapshot.getByteSize() < snapshot.getByteSize() / 4);
+
+        remove("/content/site/en");
+        updated = updated.update(resolver, asList(change(ChangeType.REMOVED, "/content/site/en")));
+        assertSameContent(ContentSnapshot.of(resources.get("/content/site")), updated);
+        assertNull(updated.getNode("/content/site/en/news/item5/jcr:content"));
+
+        add("/content/site/en", TYPE, "jcr:title", "Again");
+        add("/content/site/en/news", TYPE);
+        updated = updated.update(resolver, asList(change(ChangeType.ADDED, "/content/site/en")));
+        assertSameContent(ContentSnapshot.of(resources.get("/content/site")), updated);
+        assertNull(updated.getNode("/content/site/en/news/item1"));
+        assertEquals("/content/site", updated.getNode("/content/site/en").getParent().getPath());
+
+        properties.get("/content/site/en-gb").put("jcr:title", "British");
+        properties.get("/content/site/en/news").put("jcr:title", "News");
+        updated = updated.update(resolver, asList(
+            change(ChangeType.CHANGED, "/content/site/en-gb"),
+            change(ChangeType.CHANGED, "/content/site/en/news")));
+        assertSameContent(ContentSnapshot.of(resources.get("/content/site")), updated);
+        assertEquals("British", updated.getNode("/content/site/en-gb").getString("jcr:title"));
+        assertTrue(updated.getOverlaySize() > 0);
+    }
+
+    @Test
+    public void compactsTheOverlay() {
+        for (int i = 0; i < 2 * ContentSnapshot.MIN_OVERLAY; i++) {
+            add("/content/site/en/item" + i, TYPE);
+        }
+        final ContentSnapshot snapshot = ContentSnapshot.of(resources.get("/content/site"));
+
+        final List<ResourceChange> changes = new ArrayList<>();
+        for (int i = 0; i <= ContentSnapshot.MIN_OVERLAY; i += 2) {
+            properties.get("/content/site/en/item" + i).put("jcr:title", "Item " + i);
+            changes.add(change(ChangeType.CHANGED, "/content/site/en/item" + i));
+            remove("/content/site/en/item" + (i + 1));
+            changes.add(change(ChangeType.REMOVED, "/content/site/en/item" + (i + 1)));
+        }
+        final ContentSnapshot updated = snapshot.update(resolver, changes);
+
+        final ContentSnapshot expected = ContentSnapshot.of(resources.get("/content/site"));
+        assertSameContent(expected, updated);
+        assertEquals(0, updated.getOverlaySize());
+        assertEquals(expected.getByteSize(), updated.getByteSize());
+    }
+
+    private void add(String path, String type, Object... props) {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        if (type != null) {
+            values.put("sling:resourceType", type);
+        }
+        for (int i = 0; i < props.length; i += 2) {
+            values.put((String) props[i], props[i + 1]);
+        }
+        properties.put(path, values);
+        final Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        when(resource.getName()).thenReturn(ResourceUtil.getName(path));
+        when(resource.getResourceType()).thenReturn(type);
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resource.getValueMap()).thenAnswer(inv -> new ValueMapDecorator(properties.get(path)));
+        when(resource.listChildren()).thenAnswer(inv -> children(path).stream().map(resources::get).iterator());
+        when(resource.getChildren()).thenAnswer(inv -> (Iterable<Resource>) children(path).stream().map(resources::get)::iterator);
+        resources.put(path, resource);
+    }
+
+    private void remove(String path) {
+        resources.keySet().removeIf(p -> p.equals(path) || p.startsWith(path + "/"));
+    }
+
+    private List<String> children(String path) {
+        final List<String> ret = new ArrayList<>();
+        for (String child : resources.keySet()) {
+            if (path.equals(ResourceUtil.getParent(child))) {
+                ret.add(child);
+            }
+        }
+        return ret;
+    }
+
+    private static void assertSameContent(ContentSnapshot expected, ContentSnapshot actual) {
+        assertEquals(expected.size(), actual.size());
+        final List<SnapshotNode> nodes = new ArrayList<>(asList(expected.getRoot()));
+        for (int i = 0; i < nodes.size(); i++) {
+            final SnapshotNode node = nodes.get(i);
+            final SnapshotNode other = actual.getNode(node.getPath());
+            assertEquals(node.getPath(), other.getPath());
+            assertEquals(node.getResourceType(), other.getResourceType());
+            assertEquals(node.getParent() == null ? null : node.getParent().getPath(), other.getParent() == null ? null : other.getParent().getPath());
+            assertEquals(paths(node.getChildren()), paths(other.getChildren()));
+            assertEquals(node.getPropertyNames(), other.getPropertyNames());
+            for (String name : node.getPropertyNames()) {
+                assertArrayEquals(node.getStrings(name), other.getStrings(name));
+            }
+            nodes.addAll(node.getChildren());
+        }
+    }
+
+    private static List<String> paths(List<SnapshotNode> nodes) {
+        final List<String> ret = new ArrayList<>();
+        for (SnapshotNode node : nodes) {
+            ret.add(node.getPath());
+        }
+        return ret;
+    }
+
+    private static ResourceChange change(ChangeType type, String path) {
+        return new ResourceChange(type, path, false, Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Base64;
+
+import org.junit.Test;
+
+public class PageRequestTest {
+
+    @Test
+    public void roundTripsTokens() {
+        assertRoundTrip(PageRequest.of(0, 20));
+        assertRoundTrip(PageRequest.of(40, 20).sortedBy("jcr:created", true));
+        assertRoundTrip(PageRequest.of(Integer.MAX_VALUE, 1).sortedBy("jcr:title", false));
+        // the sort property is the last field, so it may contain the separator
+        assertRoundTrip(PageRequest.of(1, 2).sortedBy("a|b|c", true));
+        assertRoundTrip(PageRequest.of(1, 2).sortedBy("jürgen", false));
+    }
+
+    @Test
+    public void tokensAreUrlSafe() {
+        final String token = PageRequest.of(123456, 789).sortedBy("??>>~~", true).toToken();
+        assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void nextKeepsLimitAndOrder() {
+        final PageRequest next = PageRequest.of(20, 10).sortedBy("jcr:created", true).next();
+        assertEquals(PageRequest.of(30, 10).sortedBy("jcr:created", true), next);
+    }
+
+    @Test
+    public void nextDoesNotOverflow() {
+        final PageRequest next = PageRequest.of(Integer.MAX_VALUE - 5, 10).next();
+        assertEquals(PageRequest.of(Integer.MAX_VALUE, 10), next);
+        assertEquals(next, next.next());
+        assertRoundTrip(next);
+    }
+
+    @Test
+    public void pageContinuesUntilTotal() {
+        final ModelPage<Object> first = new ModelPage<>(emptyList(), PageRequest.of(0, 10).sortedBy("p", false), 20);
+        assertTrue(first.hasNext());
+        assertEquals(PageRequest.of(10, 10).sortedBy("p", false), PageRequest.fromToken(first.getContinuationToken()));
+
+        final ModelPage<Object> last = new ModelPage<>(emptyList(), first.getNext(), 20);
+        assertFalse(last.hasNext());
+        assertNull(last.getNext());
+        assertNull(last.getContinuationToken());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullToken() {
+        PageRequest.fromToken(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonBase64Token() {
+        PageRequest.fromToken("not a token!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTokenOfOtherVersion() {
+        PageRequest.fromToken(encode("2|0|10|false|"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTokenWithBadNumbers() {
+        PageRequest.fromToken(encode("1|x|10|false|"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTokenWithInvalidPage() {
+        PageRequest.fromToken(encode("1|-1|10|false|"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTokenWithOverflownOffset() {
+        PageRequest.fromToken(encode("1|" + Integer.MIN_VALUE + "|10|false|"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTokenWithZeroLimit() {
+        PageRequest.fromToken(encode("1|0|0|false|"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedToken() {
+        PageRequest.fromToken(encode("1|0|10"));
+    }
+
+    private static void assertRoundTrip(PageRequest page) {
+        assertEquals(page, PageRequest.fromToken(page.toToken()));
+    }
+
+    private static String encode(String token) {
+        return Base64.getUrlEncoder().encodeToString(token.getBytes(UTF_8));
+    }
+}
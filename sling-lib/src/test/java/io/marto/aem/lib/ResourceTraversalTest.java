@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.stream.Collectors;
+
+import org.apache.sling.api.resource.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.marto.aem.lib.impl.TestRepository;
+
+public class ResourceTraversalTest {
+
+    private static final String X = "test/components/x";
+    private static final String Y = "test/components/y";
+
+    private TestRepository repo;
+    private Resource root;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        root = repo.add("/r", "test/components/page");
+        repo.add("/r/a", X);
+        repo.add("/r/a/a1", Y);
+        repo.add("/r/a/a1/a1a", X);
+        repo.add("/r/a/a2", X);
+        repo.add("/r/b", Y);
+        repo.add("/r/b/b1", X);
+        repo.add("/r/c", "nt:file");
+        repo.add("/r/c/c1", X);
+    }
+
+    @Test
+    public void visitsDepthFirstByDefault() throws Exception {
+        final List<String> expected = asList("/r", "/r/a", "/r/a/a1", "/r/a/a1/a1a", "/r/a/a2", "/r/b", "/r/b/b1", "/r/c", "/r/c/c1");
+        assertEquals(expected, paths(ResourceUtils.traverse(root)));
+        assertEquals(expected, paths(ResourceUtils.traverse(root).breadthFirst().depthFirst()));
+        assertEquals(expected, pathsOf(ResourceUtils.traverse(root).toList()));
+    }
+
+    @Test
+    public void visitsBreadthFirst() {
+        assertEquals(asList("/r", "/r/a", "/r/b", "/r/c", "/r/a/a1", "/r/a/a2", "/r/b/b1", "/r/c/c1", "/r/a/a1/a1a"),
+            paths(ResourceUtils.traverse(root).breadthFirst()));
+    }
+
+    @Test
+    public void descendsToMaxDepth() {
+        assertEquals(asList("/r"), paths(ResourceUtils.traverse(root).maxDepth(0)));
+        assertEquals(asList("/r", "/r/a", "/r/b", "/r/c"), paths(ResourceUtils.traverse(root).maxDepth(1)));
+        assertEquals(asList("/r", "/r/a", "/r/b", "/r/c"), paths(ResourceUtils.traverse(root).breadthFirst().maxDepth(1)));
+        assertEquals(asList("/r", "/r/a", "/r/a/a1", "/r/a/a2", "/r/b", "/r/b/b1", "/r/c", "/r/c/c1"),
+            paths(ResourceUtils.traverse(root).maxDepth(2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeMaxDepth() {
+        ResourceUtils.traverse(root).maxDepth(-1);
+    }
+
+    @Test
+    public void visitsButDoesNotDescendIntoPrunedResources() {
+        assertEquals(asList("/r", "/r/a", "/r/a/a1", "/r/a/a2", "/r/b", "/r/b/b1", "/r/c"),
+            paths(ResourceUtils.traverse(root).prune(res -> res.getPath().equals("/r/a/a1")).prune(res -> res.isResourceType("nt:file"))));
+        assertEquals(asList("/r", "/r/a", "/r/b", "/r/c", "/r/a/a1", "/r/a/a2", "/r/b/b1", "/r/a/a1/a1a"),
+            paths(ResourceUtils.traverse(root).breadthFirst().prune(res -> res.getPath().equals("/r/c"))));
+    }
+
+    @Test
+    public void descendsIntoButDoesNotReturnFilteredOutResources() {
+        assertEquals(asList("/r/a/a1", "/r/a/a1/a1a"),
+            paths(ResourceUtils.traverse(root).filter(res -> res.getPath().startsWith("/r/a/")).filter(res -> !res.getName().equals("a2"))));
+    }
+
+    @Test
+    public void returnsResourcesOfType() {
+        assertEquals(asList("/r/a", "/r/a/a1/a1a", "/r/a/a2", "/r/b/b1", "/r/c/c1"), paths(ResourceUtils.traverse(root).ofType(X)));
+        assertEquals(asList("/r/a", "/r/a/a2", "/r/b/b1", "/r/c/c1", "/r/a/a1/a1a"), paths(ResourceUtils.traverse(root).breadthFirst().ofType(X)));
+        assertEquals(asList("/r/a/a1/a1a", "/r/a/a2", "/r/b/b1"),
+            paths(ResourceUtils.traverse(root).ofType(X).prune(res -> res.isResourceType("nt:file")).filter(res -> res.getPath().length() > 4)));
+    }
+
+    @Test
+    public void firstReadsNoFurtherThanTheResourceFound() {
+        assertEquals("/r/a/a1", ResourceUtils.traverse(root).ofType(Y).first().getPath());
+        // the children of /r, /r/a and /r/a/a1
+        assertEquals(3, repo.listings.get());
+
+        repo.listings.set(0);
+        assertEquals("/r/b", ResourceUtils.traverse(root).breadthFirst().ofType(Y).first().getPath());
+        // the children of /r, /r/a and /r/b
+        assertEquals(3, repo.listings.get());
+
+        repo.listings.set(0);
+        assertEquals(asList("/r", "/r/a"), ResourceUtils.traverse(root).stream().limit(2).map(Resource::getPath).collect(Collectors.toList()));
+        assertEquals(2, repo.listings.get());
+    }
+
+    @Test
+    public void traversesNothingFromNull() throws Exception {
+        assertNull(ResourceUtils.traverse(null).first());
+        assertEquals(0, ResourceUtils.traverse(null).stream().count());
+        assertEquals(0, ResourceUtils.traverse(null).parallel(2).toList().size());
+    }
+
+    @Test
+    public void find1stChildResourceSearchesBreadthFirstLikeBefore() {
+        for (Resource from : new ArrayList<>(repo.resources.values())) {
+            for (String type : asList("test/components/page", X, Y, "nt:file", "test/components/missing")) {
+                assertSame(from.getPath() + " " + type, baselineFind1stChildResource(from, type), ResourceUtils.find1stChildResource(from, type));
+            }
+        }
+        assertNull(ResourceUtils.find1stChildResource(null, X));
+    }
+
+    /**
+     * The breadth first search of {@link ResourceUtils#find1stChildResource(Resource, String)} before it was written on
+     * top of {@link ResourceTraversal}.
+     */
+    private static Resource baselineFind1stChildResource(Resource resource, String type) {
+        final Queue<Resource> queue = new LinkedList<>();
+        queue.add(resource);
+        while (!queue.isEmpty()) {
+            final Resource res = queue.poll();
+            if (res.getResourceResolver().isResourceType(res, type)) {
+                return res;
+            }
+            for (Resource child : res.getChildren()) {
+                queue.add(child);
+            }
+        }
+        return null;
+    }
+
+    private static List<String> paths(ResourceTraversal traversal) {
+        final List<String> ret = new ArrayList<>();
+        for (Resource res : traversal) {
+            ret.add(res.getPath());
+        }
+        return ret;
+    }
+
+    private static List<String> pathsOf(List<Resource> resources) {
+        return resources.stream().map(Resource::getPath).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.marto.aem.lib.BatchOptions;
+import io.marto.aem.lib.BatchProgress;
+
+public class BatchImplTest {
+
+    private static final String CHECKPOINT = "/var/batch/checkpoint";
+
+    private TestRepository repo;
+    private final List<BatchProgress> progress = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        repo.add("/", null);
+        repo.add("/var", null);
+    }
+
+    @Test
+    public void commitsEveryMaxChanges() throws Exception {
+        final BatchImpl batch = new BatchImpl(repo.resolver, BatchOptions.everyChanges(3).onProgress(progress::add));
+        for (int i = 1; i <= 7; i++) {
+            batch.changed(Integer.toString(i));
+        }
+        verify(repo.resolver, times(2)).commit();
+        assertEquals("6", batch.getProgress().getPosition());
+        assertEquals(6, batch.getProgress().getChanges());
+
+        batch.finish();
+        verify(repo.resolver, times(3)).commit();
+        assertEquals(3, progress.size());
+        assertEquals("7", progress.get(2).getPosition());
+        assertEquals(7, progress.get(2).getChanges());
+        assertEquals(3, progress.get(2).getBatches());
+    }
+
+    @Test
+    public void countsChangesReportedTogether() throws Exception {
+        final BatchImpl batch = new BatchImpl(repo.resolver, BatchOptions.everyChanges(10));
+        batch.changed(4, "a");
+        batch.changed(6, "b");
+        verify(repo.resolver, times(1)).commit();
+        assertEquals(10, batch.getProgress().getChanges());
+    }
+
+    @Test
+    public void doesNotCommitWithoutChanges() throws Exception {
+        final BatchImpl batch = new BatchImpl(repo.resolver, BatchOptions.everyChanges(10));
+        batch.commit("a");
+        batch.finish();
+        verify(repo.resolver, never()).commit();
+    }
+
+    @Test
+    public void checkpointsCommittedPositionAndResumesFromIt() throws Exception {
+        final BatchOptions options = BatchOptions.everyChanges(2).withCheckpoint(CHECKPOINT);
+        final BatchImpl failed = new BatchImpl(repo.resolver, options);
+        assertNull(failed.getResumePosition());
+        failed.changed("a");
+        failed.changed("b");
+        failed.changed("c");
+        // the task fails here, with "c" never committed
+        assertEquals("b", repo.properties.get(CHECKPOINT).get(BatchImpl.PROP_POSITION));
+        assertEquals(2L, repo.properties.get(CHECKPOINT).get(BatchImpl.PROP_CHANGES));
+
+        final BatchImpl resumed = new BatchImpl(repo.resolver, options);
+        assertEquals("b", resumed.getResumePosition());
+        assertEquals("b", resumed.getProgress().getPosition());
+        resumed.changed("c");
+        resumed.finish();
+        assertNull(repo.resolver.getResource(CHECKPOINT));
+
+        assertNull(new BatchImpl(repo.resolver, options).getResumePosition());
+    }
+
+    @Test
+    public void resumeFromTakesPrecedenceOverCheckpoint() throws Exception {
+        final BatchOptions options = BatchOptions.everyChanges(1).withCheckpoint(CHECKPOINT);
+        new BatchImpl(repo.resolver, options).changed("a");
+        assertEquals("z", new BatchImpl(repo.resolver, options.resumeFrom("z")).getResumePosition());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import io.marto.aem.lib.TypedResourceResolver;
+import io.marto.aem.lib.impl.TestRepository.CacheableTestModel;
+
+public class CacheWarmerImplTest {
+
+    private static final String TYPE = "test/components/page";
+    private static final String ENTRY = "/content/a|" + CacheableTestModel.class.getName() + "|" + TYPE;
+
+    private TestRepository repo;
+    private final SharedModelCacheImpl sharedModels = new SharedModelCacheImpl();
+    private final TypedResourceResolverFactoryImpl factory = new TypedResourceResolverFactoryImpl();
+    private final CacheWarmerImpl warmer = new CacheWarmerImpl();
+    private final BundleContext bundleContext = mock(BundleContext.class);
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        repo.add("/content", null);
+        repo.add("/content/a", TYPE);
+        repo.add("/content/a/b", TYPE);
+        repo.add("/content/a/c", "test/components/other");
+
+        final ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(anyMapOf(String.class, Object.class))).thenReturn(repo.resolver);
+        sharedModels.activate(Collections.emptyMap());
+        inject(factory, "resolverFactory", resolverFactory);
+        inject(factory, "sharedModels", sharedModels);
+        factory.activate(Collections.emptyMap());
+        inject(warmer, "resolverFactory", factory);
+
+        final Bundle bundle = mock(Bundle.class);
+        when(bundle.getState()).thenReturn(Bundle.ACTIVE);
+        when(bundle.loadClass(anyString())).thenAnswer(inv -> CacheableTestModel.class);
+        when(bundleContext.getBundles()).thenReturn(new Bundle[] { bundle });
+    }
+
+    @After
+    public void tearDown() {
+        warmer.deactivate();
+        factory.deactivate();
+    }
+
+    @Test
+    public void warmsModelsIntoTheConfiguredPartitions() throws Exception {
+        warm(ENTRY, "user:test", "service:reader");
+        // the root and its descendant of the type in each partition
+        assertEquals(4, sharedModels.getStats().getSize());
+        final int adaptations = repo.adaptations.get();
+
+        // a request resolver of the user, and a resolver of the other sub service
+        final TypedResourceResolver request = factory.wrap(repo.resolver, false);
+        final CacheableTestModel model = request.findModel("/content/a/b", CacheableTestModel.class, TYPE);
+        assertEquals("/content/a/b", model.path);
+        assertSame(model, factory.wrap(repo.resolver, true).findModel("/content/a/b", CacheableTestModel.class, TYPE));
+        try (TypedResourceResolver reader = factory.getSubServiceResolver("reader")) {
+            assertEquals("/content/a", reader.findModel("/content/a", CacheableTestModel.class, TYPE).path);
+        }
+        assertEquals(adaptations, repo.adaptations.get());
+    }
+
+    @Test
+    public void warmsModelsIntoTheSubServicesPartitionByDefault() throws Exception {
+        warm(ENTRY);
+        assertEquals(2, sharedModels.getStats().getSize());
+        assertEquals(2, repo.adaptations.get());
+
+        try (TypedResourceResolver resolver = factory.getSubServiceResolver("cache-warmer")) {
+            assertEquals("/content/a/b", resolver.findModel("/content/a/b", CacheableTestModel.class, TYPE).path);
+        }
+        assertEquals(2, repo.adaptations.get());
+
+        // not seen by requests
+        assertEquals("/content/a/b", factory.wrap(repo.resolver, false).findModel("/content/a/b", CacheableTestModel.class, TYPE).path);
+        assertEquals(3, repo.adaptations.get());
+    }
+
+    private void warm(String entry, String... partitions) throws InterruptedException {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(CacheWarmerImpl.PROP_ENTRIES, new String[] { entry });
+        config.put(CacheWarmerImpl.PROP_PARTITIONS, partitions);
+        warmer.activate(bundleContext, config);
+        assertTrue(warmer.awaitWarm(5, TimeUnit.SECONDS));
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
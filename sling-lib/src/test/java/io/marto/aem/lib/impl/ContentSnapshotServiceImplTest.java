@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentSnapshotServiceImplTest {
+
+    private static final String TYPE = "test/components/page";
+
+    private TestRepository repo;
+    private final TypedResourceResolverFactoryImpl factory = new TypedResourceResolverFactoryImpl();
+    private final ContentSnapshotServiceImpl service = new ContentSnapshotServiceImpl();
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        repo.add("/content", null);
+        repo.add("/content/site", TYPE);
+        repo.add("/content/site/en", TYPE);
+
+        final ResourceResolverFactory resolverFactory = mock(ResourceResolverFactory.class);
+        when(resolverFactory.getServiceResourceResolver(anyMapOf(String.class, Object.class))).thenReturn(repo.resolver);
+        inject(factory, "resolverFactory", resolverFactory);
+        inject(factory, "sharedModels", new SharedModelCacheImpl());
+        factory.activate(Collections.emptyMap());
+        inject(service, "resolverFactory", factory);
+
+        final Map<String, Object> config = new HashMap<>();
+        config.put(ContentSnapshotServiceImpl.PROP_ROOTS, new String[] { "/content/site", "/content/tags" });
+        service.activate(config);
+        drain();
+    }
+
+    @Test
+    public void appliesChangesToTheSnapshots() throws Exception {
+        assertEquals(2, service.getSnapshot("/content/site").size());
+
+        repo.add("/content/site/fr", TYPE);
+        service.onChange(asList(change(ChangeType.ADDED, "/content/site/fr")));
+        drain();
+        assertEquals(3, service.getSnapshot("/content/site").size());
+        assertNotNull(service.getSnapshot("/content/site").getNode("/content/site/fr"));
+    }
+
+    @Test
+    public void takesTheSnapshotOfARootOnceItCanBeRead() throws Exception {
+        assertNull(service.getSnapshot("/content/tags"));
+
+        repo.add("/content/tags", null);
+        repo.add("/content/tags/colour", null);
+        service.onChange(asList(change(ChangeType.ADDED, "/content/tags")));
+        drain();
+        assertEquals(2, service.getSnapshot("/content/tags").size());
+
+        repo.remove("/content");
+        service.onChange(asList(change(ChangeType.REMOVED, "/content")));
+        drain();
+        assertNull(service.getSnapshot("/content/tags"));
+        assertNull(service.getSnapshot("/content/site"));
+
+        // created along with an ancestor
+        repo.add("/content", null);
+        repo.add("/content/site", TYPE);
+        service.onChange(asList(change(ChangeType.ADDED, "/content")));
+        drain();
+        assertEquals(1, service.getSnapshot("/content/site").size());
+    }
+
+    @Test
+    public void ignoresChangesOnceDeactivated() throws Exception {
+        service.deactivate();
+        service.onChange(asList(change(ChangeType.ADDED, "/content/site/fr")));
+        assertNull(service.getSnapshot("/content/site"));
+    }
+
+    /**
+     * Wait for the changes given so far to be applied, as they are in order on a single thread.
+     */
+    private void drain() throws Exception {
+        final Field field = ContentSnapshotServiceImpl.class.getDeclaredField("updater");
+        field.setAccessible(true);
+        ((ExecutorService) field.get(service)).submit(() -> { }).get();
+    }
+
+    private static ResourceChange change(ChangeType type, String path) {
+        return new ResourceChange(type, path, false, Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.jcr.query.Query;
+
+import org.apache.sling.api.resource.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModelSearchTest {
+
+    private static final String TYPE = "test/components/page";
+
+    private TestRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        repo.add("/content", null);
+        for (int i = 0; i < 5; i++) {
+            repo.add("/content/" + i, TYPE, Collections.singletonMap("odd", (Object) (i % 2 == 1)));
+        }
+        repo.add("/content/5", TYPE);
+        repo.add("/content/6", "test/components/other");
+    }
+
+    @Test
+    public void walksSmallTree() {
+        assertEquals(Arrays.asList("/content/1", "/content/3"), paths(search(properties("odd", true), 100).resources()));
+        verify(repo.resolver, never()).findResources(anyString(), anyString());
+    }
+
+    @Test
+    public void matchesNullToMissingProperty() {
+        final ModelSearch search = search(properties("odd", null), 100);
+        assertEquals(Arrays.asList("/content/5"), paths(search.resources()));
+        assertEquals("SELECT * FROM [nt:base] AS s WHERE ISDESCENDANTNODE(s, '/content') AND s.[sling:resourceType] = "
+            + "'test/components/page' AND s.[odd] IS NULL", search.toSql2());
+    }
+
+    @Test
+    public void queriesPastBudgetWithoutRepeatingWalkedMatches() {
+        final ModelSearch search = search(properties("odd", true), 2);
+        final List<Resource> results = Arrays.asList(repo.resources.get("/content/1"), repo.resources.get("/content/3"));
+        when(repo.resolver.findResources(search.toSql2(), Query.JCR_SQL2)).thenAnswer(inv -> results.iterator());
+
+        final Iterator<Resource> it = search.resources().iterator();
+        assertEquals("/content/1", it.next().getPath());
+        verify(repo.resolver, never()).findResources(anyString(), anyString());
+        assertEquals("/content/3", it.next().getPath());
+        assertFalse(it.hasNext());
+        verify(repo.resolver).findResources(search.toSql2(), Query.JCR_SQL2);
+    }
+
+    @Test
+    public void walksWholeTreeWhenQueryFails() {
+        when(repo.resolver.findResources(anyString(), eq(Query.JCR_SQL2))).thenThrow(new IllegalStateException("no index"));
+        assertEquals(Arrays.asList("/content/0", "/content/2", "/content/4"), paths(search(properties("odd", false), 2).resources()));
+    }
+
+    private ModelSearch search(Map<String, ?> properties, int budget) {
+        return new ModelSearch(repo.resolver, "/content", TYPE, properties, budget);
+    }
+
+    private static Map<String, Object> properties(String name, Object value) {
+        final Map<String, Object> ret = new HashMap<>();
+        ret.put(name, value);
+        return ret;
+    }
+
+    private static List<String> paths(Stream<Resource> resources) {
+        return resources.map(Resource::getPath).collect(Collectors.toList());
+    }
+}
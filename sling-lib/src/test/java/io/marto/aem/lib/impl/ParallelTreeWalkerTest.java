@@ -0,0 +1,154 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.marto.aem.lib.RepositoryLoginException;
+import io.marto.aem.lib.ResourceUtils;
+import io.marto.aem.lib.impl.TestRepository.TestModel;
+
+public class ParallelTreeWalkerTest {
+
+    private static final String TYPE = "test/components/page";
+
+    private TestRepository repo;
+    private Resource root;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        root = repo.add("/content", null);
+        for (int i = 0; i < 20; i++) {
+            repo.add("/content/p" + i, null);
+            repo.add("/content/p" + i + "/jcr:content", i % 3 == 0 ? "test/components/other" : TYPE);
+            for (int j = 0; j < 10; j++) {
+                repo.add("/content/p" + i + "/c" + j, null);
+                repo.add("/content/p" + i + "/c" + j + "/jcr:content", TYPE);
+            }
+        }
+    }
+
+    @Test
+    public void mapsModelChildrenLikeTheSequentialList() throws Exception {
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver);
+        final List<String> sequential = resolver.listModelChildren("/content", "jcr:content", TestModel.class, TYPE).stream()
+            .map(model -> model.path)
+            .collect(Collectors.toList());
+
+        final List<String> parallel = resolver.mapModelChildren("/content", "jcr:content", TestModel.class, TYPE, model -> model.path, 4);
+
+        assertEquals(13, sequential.size());
+        assertEquals(sequential, parallel);
+        assertClonesClosed();
+    }
+
+    @Test
+    public void traversesInParallelLikeSequentially() throws Exception {
+        final List<String> sequential = paths(ResourceUtils.traverse(root).ofType(TYPE).toList());
+
+        final List<String> parallel = paths(ResourceUtils.traverse(root).ofType(TYPE).parallel(4).toList());
+
+        assertEquals(213, sequential.size());
+        assertEquals(sequential, parallel);
+        assertEquals(paths(ResourceUtils.traverse(root).maxDepth(1).toList()), paths(ResourceUtils.traverse(root).maxDepth(1).parallel(3).toList()));
+        assertEquals(paths(ResourceUtils.traverse(root).prune(res -> res.getName().startsWith("p")).toList()),
+            paths(ResourceUtils.traverse(root).prune(res -> res.getName().startsWith("p")).parallel(3).toList()));
+        assertClonesClosed();
+    }
+
+    @Test
+    public void closesTheClonesWhenTheCollectorThrows() throws Exception {
+        final ParallelTreeWalker<String> walker = new ParallelTreeWalker<>(4, Integer.MAX_VALUE, res -> false, res -> {
+            if (res.getPath().equals("/content/p13/c7")) {
+                throw new IllegalStateException("collector failed");
+            }
+            return res.getPath();
+        });
+
+        assertFailsWith("collector failed", walker);
+        assertClonesClosed();
+    }
+
+    @Test
+    public void propagatesTheFailureOfASubtree() throws Exception {
+        when(repo.resources.get("/content/p5").getChildren()).thenThrow(new IllegalStateException("subtree failed"));
+        final ParallelTreeWalker<String> walker = new ParallelTreeWalker<>(4, Integer.MAX_VALUE, res -> false, Resource::getPath);
+
+        assertFailsWith("subtree failed", walker);
+        assertClonesClosed();
+    }
+
+    @Test
+    public void failsWhenTheResolverCantBeCloned() throws Exception {
+        doThrow(new LoginException("denied")).when(repo.resolver).clone(anyMapOf(String.class, Object.class));
+        final ParallelTreeWalker<String> walker = new ParallelTreeWalker<>(4, Integer.MAX_VALUE, res -> false, Resource::getPath);
+
+        try {
+            walker.walk(root);
+            fail("Expected RepositoryLoginException");
+        } catch (RepositoryLoginException e) {
+            // expected
+        }
+    }
+
+    private void assertFailsWith(String message, ParallelTreeWalker<String> walker) throws Exception {
+        try {
+            walker.walk(root);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // rethrown by the fork/join tasks joined on the way up, possibly as copies that have the original as their cause
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                assertTrue(String.valueOf(e), cause instanceof IllegalStateException);
+                cause = cause.getCause();
+            }
+            assertEquals(message, cause.getMessage());
+        }
+    }
+
+    private void assertClonesClosed() {
+        assertFalse(repo.clones.isEmpty());
+        assertEquals(new HashSet<>(repo.clones), repo.closedClones);
+    }
+
+    private static List<String> paths(List<Resource> resources) {
+        final List<String> ret = new ArrayList<>();
+        for (Resource res : resources) {
+            ret.add(res.getPath());
+        }
+        return ret;
+    }
+}
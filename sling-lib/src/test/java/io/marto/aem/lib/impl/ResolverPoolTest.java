@@ -0,0 +1,167 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class ResolverPoolTest {
+
+    @Test
+    public void reusesTheMostRecentlyReleasedResolverRefreshed() throws Exception {
+        final ResolverPool pool = pool(2, 60000L);
+        final ResourceResolver first = pool.checkout();
+        final ResourceResolver second = pool.checkout();
+        pool.release(first);
+        pool.release(second);
+
+        assertSame(second, pool.checkout());
+        verify(second).refresh();
+        assertSame(first, pool.checkout());
+        assertEquals(2, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    public void revertsChangesLeftByTheBorrower() throws Exception {
+        final ResolverPool pool = pool(1, 60000L);
+        final ResourceResolver resolver = pool.checkout();
+        when(resolver.hasChanges()).thenReturn(true);
+
+        pool.release(resolver);
+        assertSame(resolver, pool.checkout());
+
+        final InOrder order = inOrder(resolver);
+        order.verify(resolver).revert();
+        order.verify(resolver).refresh();
+        verify(resolver, never()).close();
+    }
+
+    @Test
+    public void doesNotRevertUnchangedResolvers() throws Exception {
+        final ResolverPool pool = pool(1, 60000L);
+        final ResourceResolver resolver = pool.checkout();
+
+        pool.release(resolver);
+
+        verify(resolver, never()).revert();
+    }
+
+    @Test
+    public void closesResolversIdleForTooLong() throws Exception {
+        final ResolverPool pool = pool(2, 0);
+        final ResourceResolver stale = pool.checkout();
+        pool.release(stale);
+        Thread.sleep(2);
+
+        final ResourceResolver fresh = pool.checkout();
+
+        assertNotSame(stale, fresh);
+        verify(stale).close();
+        assertEquals(1, pool.getEvictions());
+        assertEquals(0, pool.getHits());
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void closesResolversIdleForTooLongOnRelease() throws Exception {
+        final ResolverPool pool = pool(2, 0);
+        final ResourceResolver stale = pool.checkout();
+        final ResourceResolver other = pool.checkout();
+        pool.release(stale);
+        Thread.sleep(2);
+
+        pool.release(other);
+
+        verify(stale).close();
+        verify(other, never()).close();
+        assertEquals(1, pool.getIdle());
+        assertEquals(1, pool.getEvictions());
+    }
+
+    @Test
+    public void doesNotReuseResolversNoLongerLive() throws Exception {
+        final ResolverPool pool = pool(2, 60000L);
+        final ResourceResolver dead = pool.checkout();
+        final ResourceResolver dying = pool.checkout();
+        when(dead.isLive()).thenReturn(false);
+        pool.release(dead);
+        assertEquals(0, pool.getIdle());
+
+        pool.release(dying);
+        when(dying.isLive()).thenReturn(false);
+        final ResourceResolver fresh = pool.checkout();
+
+        assertNotSame(dying, fresh);
+        verify(dying, never()).refresh();
+        assertEquals(1, pool.getEvictions());
+    }
+
+    @Test
+    public void holdsAtMostMaxSizeIdleResolvers() throws Exception {
+        final ResolverPool pool = pool(2, 60000L);
+        final ResourceResolver first = pool.checkout();
+        final ResourceResolver second = pool.checkout();
+        final ResourceResolver third = pool.checkout();
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        assertEquals(2, pool.getIdle());
+        verify(third).close();
+        verify(first, never()).close();
+        verify(second, never()).close();
+    }
+
+    @Test
+    public void closesIdleAndLaterReleasedResolversOnceClosed() throws Exception {
+        final ResolverPool pool = pool(2, 60000L);
+        final ResourceResolver idle = pool.checkout();
+        final ResourceResolver borrowed = pool.checkout();
+        pool.release(idle);
+
+        pool.close();
+        verify(idle).close();
+        assertEquals(0, pool.getIdle());
+
+        pool.release(borrowed);
+        verify(borrowed).close();
+        assertEquals(0, pool.getIdle());
+    }
+
+    private ResolverPool pool(int maxSize, long maxIdleMillis) {
+        return new ResolverPool("test-service", maxSize, maxIdleMillis, () -> {
+            final ResourceResolver resolver = mock(ResourceResolver.class);
+            when(resolver.isLive()).thenReturn(true);
+            return resolver;
+        });
+    }
+}
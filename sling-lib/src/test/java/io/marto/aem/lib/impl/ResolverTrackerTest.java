@@ -0,0 +1,167 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.marto.aem.lib.RepositoryMetrics;
+
+public class ResolverTrackerTest {
+
+    private static final String SUB_SERVICE = "test-service";
+
+    private final RepositoryMetrics metrics = mock(RepositoryMetrics.class);
+    private final ResourceResolver delegate = mock(ResourceResolver.class);
+
+    @Before
+    public void setUp() {
+        Instrumentation.enable(Collections.singletonList(metrics), Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        Instrumentation.disable();
+    }
+
+    @Test
+    public void doesNotReportClosedResolvers() throws Exception {
+        final ResolverTracker tracker = tracker(0, false);
+        final SubServiceResolver resolver = open(tracker);
+        assertEquals(1, tracker.getLive());
+
+        resolver.close();
+        Thread.sleep(2);
+        tracker.reap();
+
+        assertEquals(0, tracker.getLive());
+        assertEquals(0, tracker.getLeaked());
+        verify(delegate).close();
+        verify(metrics).closed(SUB_SERVICE);
+        verify(metrics, never()).leaked(SUB_SERVICE);
+    }
+
+    @Test
+    public void reportsResolversOpenPastTheirLifetimeOnce() throws Exception {
+        final ResolverTracker tracker = tracker(0, false);
+        final SubServiceResolver resolver = open(tracker);
+        Thread.sleep(2);
+
+        tracker.reap();
+        tracker.reap();
+
+        assertEquals(1, tracker.getLive());
+        assertEquals(1, tracker.getLeaked());
+        verify(metrics).leaked(SUB_SERVICE);
+        verify(delegate, never()).close();
+
+        resolver.close();
+        assertEquals(0, tracker.getLive());
+        assertEquals(1, tracker.getLeaked());
+    }
+
+    @Test
+    public void doesNotReportResolversWithinTheirLifetime() {
+        final ResolverTracker tracker = tracker(60000L, false);
+        open(tracker);
+
+        tracker.reap();
+
+        assertEquals(1, tracker.getLive());
+        assertEquals(0, tracker.getLeaked());
+    }
+
+    @Test
+    public void forceClosesResolversOpenPastTheirLifetime() throws Exception {
+        final ResolverTracker tracker = tracker(0, true);
+        final SubServiceResolver resolver = open(tracker);
+        Thread.sleep(2);
+
+        tracker.reap();
+
+        assertEquals(0, tracker.getLive());
+        assertEquals(1, tracker.getLeaked());
+        verify(delegate).close();
+        verify(metrics).leaked(SUB_SERVICE);
+        verify(metrics).closed(SUB_SERVICE);
+
+        // closing it again, as the owner eventually does, changes nothing
+        resolver.close();
+        verify(delegate).close();
+        verify(metrics).closed(SUB_SERVICE);
+    }
+
+    @Test
+    public void reportsResolversCollectedWithoutBeingClosed() {
+        final ResolverTracker tracker = tracker(60000L, false);
+        final ResolverTracker.Tracked tracked = tracker.opened(open(null), new RepositoryMetrics[] { metrics });
+
+        collect(tracked);
+        tracker.reap();
+
+        assertEquals(0, tracker.getLive());
+        assertEquals(1, tracker.getLeaked());
+        verify(metrics).leaked(SUB_SERVICE);
+        verify(metrics).closed(SUB_SERVICE);
+    }
+
+    @Test
+    public void countsACollectedResolverReportedBeforeAsOneLeak() throws Exception {
+        final ResolverTracker tracker = tracker(0, false);
+        final ResolverTracker.Tracked tracked = tracker.opened(open(null), new RepositoryMetrics[] { metrics });
+        Thread.sleep(2);
+        tracker.reap();
+        assertEquals(1, tracker.getLeaked());
+
+        collect(tracked);
+        tracker.reap();
+
+        assertEquals(0, tracker.getLive());
+        assertEquals(1, tracker.getLeaked());
+        verify(metrics, times(1)).leaked(SUB_SERVICE);
+        verify(metrics).closed(SUB_SERVICE);
+    }
+
+    private static ResolverTracker tracker(long maxLifetimeMillis, boolean forceClose) {
+        return new ResolverTracker(maxLifetimeMillis, forceClose, false, mock(ScheduledExecutorService.class));
+    }
+
+    private SubServiceResolver open(ResolverTracker tracker) {
+        return new SubServiceResolver(SUB_SERVICE, delegate, null, null, tracker);
+    }
+
+    /**
+     * Have <code>tracked</code> look as if its resolver was garbage collected.
+     */
+    private static void collect(ResolverTracker.Tracked tracked) {
+        tracked.clear();
+        tracked.enqueue();
+    }
+}
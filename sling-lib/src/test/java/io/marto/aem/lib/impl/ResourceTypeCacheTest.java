@@ -0,0 +1,87 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceTypeCacheTest {
+
+    private static final String[] SEARCH_PATH = { "/apps/", "/libs/" };
+
+    private final ResourceResolver resolver = mock(ResourceResolver.class);
+
+    @Before
+    public void setUp() {
+        when(resolver.getUserID()).thenReturn("test");
+        when(resolver.getSearchPath()).thenReturn(SEARCH_PATH);
+        when(resolver.getParentResourceType("test/components/page")).thenReturn("/libs/test/components/base");
+        when(resolver.getParentResourceType("/libs/test/components/base")).thenReturn("test/components/page");
+        ResourceTypeCache.enable();
+    }
+
+    @After
+    public void tearDown() {
+        ResourceTypeCache.disable();
+    }
+
+    @Test
+    public void matchesSuperTypesRelativeToSearchPath() {
+        final Resource resource = resource("test/components/page");
+
+        assertTrue(ResourceTypeCache.isResourceType(resource, "test/components/page"));
+        assertTrue(ResourceTypeCache.isResourceType(resource, "/apps/test/components/page"));
+        assertTrue(ResourceTypeCache.isResourceType(resource, "test/components/base"));
+        assertTrue(ResourceTypeCache.isResourceType(resource, "/libs/test/components/base"));
+        assertFalse(ResourceTypeCache.isResourceType(resource, "test/components/other"));
+        assertFalse(ResourceTypeCache.isResourceType(null, "test/components/page"));
+        assertFalse(ResourceTypeCache.isResourceType(resource, null));
+
+        // the ancestry of the super type is walked once
+        verify(resolver, times(1)).getParentResourceType("/libs/test/components/base");
+    }
+
+    @Test
+    public void usesKnownSearchPath() {
+        final Resource resource = resource("test/components/page");
+
+        assertTrue(ResourceTypeCache.isResourceType(resource, "/apps/test/components/base", SEARCH_PATH));
+        assertFalse(ResourceTypeCache.isResourceType(resource, "/apps/test/components/other", SEARCH_PATH));
+
+        verify(resolver, never()).getSearchPath();
+    }
+
+    private Resource resource(String type) {
+        final Resource resource = mock(Resource.class);
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resource.getResourceType()).thenReturn(type);
+        return resource;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ResourceTypeIndexTest {
+
+    private static final String TYPE = "test/components/page";
+
+    @After
+    public void tearDown() {
+        ResourceTypeIndex.disable(ResourceTypeIndex.enable(Collections.emptyList()));
+    }
+
+    @Test
+    public void findsDescendantsOnceReady() {
+        final long generation = ResourceTypeIndex.enable(singletonList("/content"));
+        ResourceTypeIndex.put(generation, "/content/a", TYPE);
+        ResourceTypeIndex.put(generation, "/content/a/b", TYPE);
+        ResourceTypeIndex.put(generation, "/content/ab", TYPE);
+        ResourceTypeIndex.put(generation, "/etc/a", TYPE);
+        assertNull(ResourceTypeIndex.descendants("/content", TYPE));
+
+        ResourceTypeIndex.ready(generation);
+        assertEquals(Arrays.asList("/content/a", "/content/a/b", "/content/ab"), paths("/content"));
+        assertEquals(Arrays.asList("/content/a/b"), paths("/content/a"));
+        assertNull(ResourceTypeIndex.descendants("/etc", TYPE));
+
+        ResourceTypeIndex.remove(generation, "/content/a");
+        assertEquals(Arrays.asList("/content/ab"), paths("/content"));
+    }
+
+    @Test
+    public void ignoresWritesOfEarlierGeneration() {
+        final long stale = ResourceTypeIndex.enable(singletonList("/content"));
+        final long generation = ResourceTypeIndex.enable(singletonList("/content"));
+
+        ResourceTypeIndex.put(stale, "/content/a", TYPE);
+        ResourceTypeIndex.ready(stale);
+        assertNull(ResourceTypeIndex.descendants("/content", TYPE));
+
+        ResourceTypeIndex.ready(generation);
+        ResourceTypeIndex.disable(stale);
+        assertEquals(0, ResourceTypeIndex.descendants("/content", TYPE).size());
+
+        ResourceTypeIndex.disable(generation);
+        assertNull(ResourceTypeIndex.descendants("/content", TYPE));
+    }
+
+    private static List<String> paths(String path) {
+        return new ArrayList<>(ResourceTypeIndex.descendants(path, TYPE));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedModelCacheImplTest {
+
+    private static final String TYPE = "test/components/page";
+
+    private SharedModelCacheImpl cache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        cache = new SharedModelCacheImpl();
+        cache.activate(config(SharedModelCacheImpl.PROP_MISSES_MAX_ENTRIES, 100));
+    }
+
+    @Test
+    public void cachesModels() {
+        final Object model = get("/content/a");
+        assertSame(model, get("/content/a"));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getSize());
+    }
+
+    @Test
+    public void changeInvalidatesSelfAndAncestors() {
+        final Object page = get("/content/a");
+        final Object parent = get("/content");
+        final Object child = get("/content/a/b");
+        final Object sibling = get("/content/ab");
+
+        change(ChangeType.CHANGED, "/content/a");
+
+        assertSame(child, get("/content/a/b"));
+        assertSame(sibling, get("/content/ab"));
+        assertNotSame(page, get("/content/a"));
+        assertNotSame(parent, get("/content"));
+        assertEquals(6, loads.get());
+    }
+
+    @Test
+    public void removalInvalidatesDescendants() {
+        get("/content/a");
+        get("/content/a/b");
+        get("/content/a/b/c");
+        final Object sibling = get("/content/ab");
+
+        change(ChangeType.REMOVED, "/content/a");
+
+        assertEquals(1, cache.getStats().getSize());
+        assertSame(sibling, get("/content/ab"));
+    }
+
+    @Test
+    public void invalidateAllBelowRoot() {
+        get("/content/a");
+        get("/etc/b");
+        cache.invalidate("/");
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void doesNotPutModelChangedWhileLoading() {
+        final Object stale = cache.get("p", "/content/a", Object.class, TYPE, () -> {
+            change(ChangeType.CHANGED, "/content/a/jcr:content");
+            return new Object();
+        });
+        final Object fresh = get("/content/a");
+
+        assertNotSame(stale, fresh);
+        assertSame(fresh, get("/content/a"));
+    }
+
+    @Test
+    public void putsModelWhenUnrelatedContentChangedWhileLoading() {
+        final Object model = cache.get("p", "/content/a", Object.class, TYPE, () -> {
+            change(ChangeType.CHANGED, "/content/b");
+            return new Object();
+        });
+        assertSame(model, get("/content/a"));
+    }
+
+    @Test
+    public void doesNotPutModelLoadedAcrossManyInvalidations() {
+        cache.get("p", "/content/a", Object.class, TYPE, () -> {
+            for (int i = 0; i < PathCache.RECENT; i++) {
+                change(ChangeType.CHANGED, "/content/b");
+            }
+            return new Object();
+        });
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void remembersMissesUntilChanged() {
+        assertNull(cache.get("p", "/content/a", Object.class, TYPE, miss()));
+        assertNull(cache.get("p", "/content/a", Object.class, TYPE, miss()));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMissStats().getSize());
+
+        change(ChangeType.ADDED, "/content/a");
+
+        assertSame(get("/content/a"), get("/content/a"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void doesNotRememberMissesByDefault() {
+        cache.activate(new HashMap<>());
+        assertNull(cache.get("p", "/content/a", Object.class, TYPE, miss()));
+        assertNull(cache.get("p", "/content/a", Object.class, TYPE, miss()));
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.getMissStats().getSize());
+    }
+
+    @Test
+    public void evictsPastMaxEntries() {
+        cache.activate(config(SharedModelCacheImpl.PROP_MAX_ENTRIES, 10));
+        for (int i = 0; i < 100; i++) {
+            get("/content/" + i);
+        }
+        assertEquals(10, cache.getStats().getSize());
+
+        // evicted entries are no longer indexed, and invalidation still finds those left
+        change(ChangeType.REMOVED, "/content");
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    private Object get(String path) {
+        return cache.get("p", path, Object.class, TYPE, () -> {
+            loads.incrementAndGet();
+            return new Object();
+        });
+    }
+
+    private Supplier<Object> miss() {
+        return () -> {
+            loads.incrementAndGet();
+            return null;
+        };
+    }
+
+    private void change(ChangeType type, String path) {
+        cache.onChange(singletonList(new ResourceChange(type, path, false, null, null, null)));
+    }
+
+    private static Map<String, Object> config(String name, Object value) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put(name, value);
+        return config;
+    }
+}
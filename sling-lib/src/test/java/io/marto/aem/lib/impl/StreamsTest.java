@@ -0,0 +1,133 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.sling.api.resource.Resource;
+import org.junit.Test;
+
+public class StreamsTest {
+
+    @Test
+    public void splitsUnknownSizesInGrowingBatches() {
+        final List<Integer> values = range(10000);
+        final Spliterator<Integer> spliterator = Streams.batchSpliterator(values::iterator);
+        assertFalse(spliterator.hasCharacteristics(Spliterator.SIZED));
+        assertEquals(Streams.INITIAL_BATCH, spliterator.estimateSize());
+
+        final List<Integer> seen = new ArrayList<>();
+        final List<Long> batches = new ArrayList<>();
+        for (Spliterator<Integer> batch; (batch = spliterator.trySplit()) != null;) {
+            assertTrue(batch.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+            batches.add(batch.estimateSize());
+            batch.forEachRemaining(seen::add);
+        }
+        spliterator.forEachRemaining(seen::add);
+
+        assertEquals(values, seen);
+        assertEquals(Long.valueOf(Streams.INITIAL_BATCH), batches.get(0));
+        assertEquals(Long.valueOf(2 * Streams.INITIAL_BATCH), batches.get(1));
+        assertEquals(Long.valueOf(Streams.MAX_BATCH), batches.get(batches.size() - 2));
+        for (long batch : batches) {
+            assertTrue(batch <= Streams.MAX_BATCH);
+        }
+    }
+
+    @Test
+    public void splitsKnownSizesInHalves() {
+        final List<Integer> values = range(100);
+        final Spliterator<Integer> spliterator = Streams.batchSpliterator(values);
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+        assertEquals(100, spliterator.estimateSize());
+
+        final List<Integer> seen = new ArrayList<>();
+        final List<Long> batches = new ArrayList<>();
+        for (Spliterator<Integer> batch; (batch = spliterator.trySplit()) != null;) {
+            batches.add(batch.estimateSize());
+            batch.forEachRemaining(seen::add);
+        }
+        assertEquals(1, spliterator.estimateSize());
+        assertTrue(spliterator.tryAdvance(seen::add));
+        assertFalse(spliterator.tryAdvance(seen::add));
+        assertEquals(0, spliterator.estimateSize());
+
+        assertEquals(values, seen);
+        assertEquals(Arrays.asList(50L, 25L, 12L, 6L, 3L, 2L, 1L), batches);
+    }
+
+    @Test
+    public void doesNotSplitWhatIsLeft() {
+        assertNull(Streams.batchSpliterator(range(1)).trySplit());
+        assertNull(Streams.batchSpliterator(new ArrayList<Integer>()::iterator).trySplit());
+    }
+
+    @Test
+    public void streamsAllElementsInOrderInParallel() {
+        final List<Integer> values = range(5000);
+        assertEquals(values, Streams.parallelStreamOf(values::iterator).map(i -> i).collect(Collectors.toList()));
+        assertEquals(values, Streams.parallelStreamOf(values).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void readsChildrenThroughClonesClosedWithTheStream() throws Exception {
+        final TestRepository repo = new TestRepository();
+        final Resource parent = repo.add("/content", null);
+        for (int i = 0; i < 200; i++) {
+            repo.add("/content/c" + i, null);
+        }
+        final Set<Thread> listedOn = new HashSet<>();
+        when(parent.getChildren()).thenAnswer(inv -> {
+            listedOn.add(Thread.currentThread());
+            return repo.children("/content");
+        });
+
+        final List<String> paths;
+        try (Stream<Resource> children = Streams.parallelChildrenOf(parent)) {
+            // listed up front, on the calling thread
+            assertEquals(Collections.singleton(Thread.currentThread()), listedOn);
+            paths = children.map(Resource::getPath).collect(Collectors.toList());
+            assertTrue(repo.closedClones.isEmpty());
+        }
+
+        assertEquals(repo.children("/content").stream().map(Resource::getPath).collect(Collectors.toList()), paths);
+        assertFalse(repo.clones.isEmpty());
+        assertEquals(new HashSet<>(repo.clones), repo.closedClones);
+        assertEquals(200, repo.lookups.get());
+    }
+
+    private static List<Integer> range(int n) {
+        return IntStream.range(0, n).boxed().collect(Collectors.toList());
+    }
+}
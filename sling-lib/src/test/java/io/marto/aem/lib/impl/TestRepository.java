@@ -0,0 +1,186 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.wrappers.ModifiableValueMapDecorator;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+
+import io.marto.aem.lib.CacheableModel;
+
+/**
+ * A mocked resolver over an in-memory tree for tests. Resources adapt to a new {@link TestModel} on every
+ * {@link Resource#adaptTo(Class)}, so tests can tell a memoized or cached model from a freshly adapted one.
+ */
+public final class TestRepository {
+
+    public final ResourceResolver resolver = mock(ResourceResolver.class);
+    public final Map<String, Resource> resources = new LinkedHashMap<>();
+    public final Map<String, Map<String, Object>> properties = new HashMap<>();
+    public final AtomicInteger lookups = new AtomicInteger();
+    public final AtomicInteger adaptations = new AtomicInteger();
+    /** The number of times the children of a resource were listed */
+    public final AtomicInteger listings = new AtomicInteger();
+    /** The {@link ResourceResolver#clone(Map) clones} of the resolver, which read the same tree */
+    public final List<ResourceResolver> clones = Collections.synchronizedList(new ArrayList<>());
+    public final Set<ResourceResolver> closedClones = ConcurrentHashMap.newKeySet();
+    private boolean changes;
+
+    public TestRepository() throws PersistenceException, LoginException {
+        when(resolver.getUserID()).thenReturn("test");
+        when(resolver.getSearchPath()).thenReturn(new String[] { "/apps/", "/libs/" });
+        when(resolver.getResource(anyString())).thenAnswer(inv -> {
+            lookups.incrementAndGet();
+            return resources.get(inv.getArguments()[0]);
+        });
+        when(resolver.isResourceType(any(Resource.class), anyString())).thenAnswer(inv -> {
+            final Resource resource = (Resource) inv.getArguments()[0];
+            return resource != null && inv.getArguments()[1].equals(resource.getResourceType());
+        });
+        when(resolver.hasChanges()).thenAnswer(inv -> changes);
+        when(resolver.create(any(Resource.class), anyString(), anyMapOf(String.class, Object.class))).thenAnswer(inv -> {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> props = (Map<String, Object>) inv.getArguments()[2];
+            changes = true;
+            final String type = (String) props.get("sling:resourceType");
+            return add(((Resource) inv.getArguments()[0]).getPath() + "/" + inv.getArguments()[1], type, props);
+        });
+        doAnswer(inv -> {
+            changes = false;
+            return null;
+        }).when(resolver).commit();
+        doAnswer(inv -> {
+            changes = true;
+            remove(((Resource) inv.getArguments()[0]).getPath());
+            return null;
+        }).when(resolver).delete(any(Resource.class));
+        when(resolver.clone(anyMapOf(String.class, Object.class))).thenAnswer(inv -> cloneResolver());
+    }
+
+    public Resource add(String path, String type) {
+        return add(path, type, new HashMap<>());
+    }
+
+    public Resource add(String path, String type, Map<String, Object> props) {
+        final Resource resource = mock(Resource.class);
+        final Map<String, Object> values = new LinkedHashMap<>(props);
+        if (type != null) {
+            values.put("sling:resourceType", type);
+        }
+        properties.put(path, values);
+        when(resource.getPath()).thenReturn(path);
+        when(resource.getName()).thenReturn(ResourceUtil.getName(path));
+        when(resource.getResourceType()).thenReturn(type);
+        when(resource.getResourceResolver()).thenReturn(resolver);
+        when(resource.isResourceType(anyString())).thenAnswer(inv -> resolver.isResourceType(resource, (String) inv.getArguments()[0]));
+        when(resource.getValueMap()).thenAnswer(inv -> new ValueMapDecorator(properties.get(path)));
+        when(resource.adaptTo(TestModel.class)).thenAnswer(inv -> {
+            adaptations.incrementAndGet();
+            return new TestModel(path);
+        });
+        when(resource.adaptTo(CacheableTestModel.class)).thenAnswer(inv -> {
+            adaptations.incrementAndGet();
+            return new CacheableTestModel(path);
+        });
+        when(resource.adaptTo(ModifiableValueMap.class)).thenAnswer(inv -> new ModifiableValueMapDecorator(properties.get(path)));
+        when(resource.getParent()).thenAnswer(inv -> resources.get(ResourceUtil.getParent(path)));
+        when(resource.getChild(anyString())).thenAnswer(inv -> resources.get(path + "/" + inv.getArguments()[0]));
+        when(resource.listChildren()).thenAnswer(inv -> {
+            listings.incrementAndGet();
+            return children(path).iterator();
+        });
+        when(resource.getChildren()).thenAnswer(inv -> {
+            listings.incrementAndGet();
+            return children(path);
+        });
+        when(resource.hasChildren()).thenAnswer(inv -> !children(path).isEmpty());
+        resources.put(path, resource);
+        return resource;
+    }
+
+    private ResourceResolver cloneResolver() {
+        final ResourceResolver clone = mock(ResourceResolver.class);
+        when(clone.getUserID()).thenReturn("test");
+        when(clone.isLive()).thenAnswer(inv -> !closedClones.contains(clone));
+        when(clone.getResource(anyString())).thenAnswer(inv -> {
+            lookups.incrementAndGet();
+            return resources.get(inv.getArguments()[0]);
+        });
+        doAnswer(inv -> closedClones.add(clone)).when(clone).close();
+        clones.add(clone);
+        return clone;
+    }
+
+    public void remove(String path) {
+        resources.keySet().removeIf(p -> p.equals(path) || p.startsWith(path + "/"));
+    }
+
+    public List<Resource> children(String path) {
+        final List<Resource> ret = new ArrayList<>();
+        for (Iterator<Map.Entry<String, Resource>> it = resources.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, Resource> entry = it.next();
+            if (path.equals(ResourceUtil.getParent(entry.getKey()))) {
+                ret.add(entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    /** The model every test resource adapts to */
+    static final class TestModel {
+        final String path;
+
+        TestModel(String path) {
+            this.path = path;
+        }
+    }
+
+    /** A model every test resource adapts to that is shared by the {@link io.marto.aem.lib.SharedModelCache} */
+    @CacheableModel
+    public static final class CacheableTestModel {
+        final String path;
+
+        CacheableTestModel(String path) {
+            this.path = path;
+        }
+    }
+}
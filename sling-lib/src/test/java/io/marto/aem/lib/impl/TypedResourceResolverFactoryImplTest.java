@@ -0,0 +1,210 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import io.marto.aem.lib.RepositoryLoginException;
+import io.marto.aem.lib.RepositoryTask;
+import io.marto.aem.lib.SharedModelCache;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TypedResourceResolverFactoryImplTest {
+
+    private static final String SUB_SERVICE = "test-service";
+
+    @Mock
+    private ResourceResolverFactory resolverFactory;
+    @Mock
+    private SharedModelCache sharedModels;
+    @InjectMocks
+    private TypedResourceResolverFactoryImpl factory;
+
+    private final List<ResourceResolver> logins = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        when(resolverFactory.getServiceResourceResolver(anyMapOf(String.class, Object.class))).thenAnswer(inv -> {
+            final ResourceResolver resolver = mock(ResourceResolver.class);
+            when(resolver.isLive()).thenReturn(true);
+            logins.add(resolver);
+            return resolver;
+        });
+        final Map<String, Object> config = new HashMap<>();
+        config.put(TypedResourceResolverFactoryImpl.PROP_ASYNC_THREADS, 1);
+        config.put(TypedResourceResolverFactoryImpl.PROP_ASYNC_QUEUE_SIZE, 3);
+        factory.activate(config);
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        factory.deactivate();
+    }
+
+    @Test
+    public void runsTasksAsynchronouslyAndClosesTheirResolvers() throws Exception {
+        assertEquals("done", factory.executeAsync(SUB_SERVICE, resolver -> "done").get(5, TimeUnit.SECONDS));
+
+        assertEquals(1, logins.size());
+        verify(logins.get(0)).close();
+    }
+
+    @Test
+    public void closesTheResolverOfAFailedTask() throws Exception {
+        final CompletableFuture<Object> future = factory.executeAsync(SUB_SERVICE, resolver -> {
+            throw new IllegalStateException("failed");
+        });
+
+        assertFailedWith(IllegalStateException.class, future);
+        assertEquals(1, logins.size());
+        verify(logins.get(0)).close();
+    }
+
+    @Test
+    public void failsTasksThatCantLogIn() throws Exception {
+        doThrow(new LoginException("denied")).when(resolverFactory).getServiceResourceResolver(anyMapOf(String.class, Object.class));
+
+        assertFailedWith(RepositoryLoginException.class, factory.executeAsync(SUB_SERVICE, resolver -> "done"));
+    }
+
+    @Test
+    public void doesNotLogInForTasksCancelledBeforeTheyStart() throws Exception {
+        final CompletableFuture<Object> blocking = factory.executeAsync(SUB_SERVICE, this::block);
+        final CompletableFuture<Object> cancelled = factory.executeAsync(SUB_SERVICE, this::count);
+        cancelled.cancel(false);
+
+        gate.countDown();
+        blocking.get(5, TimeUnit.SECONDS);
+        drain();
+
+        assertEquals(0, runs.get());
+        assertEquals(2, logins.size());
+    }
+
+    @Test
+    public void rejectsTasksOnceTheQueueIsFull() throws Exception {
+        final CompletableFuture<Object> running = factory.executeAsync(SUB_SERVICE, this::block);
+        final List<CompletableFuture<Object>> queued = Arrays.asList(
+            factory.executeAsync(SUB_SERVICE, this::count), factory.executeAsync(SUB_SERVICE, this::count),
+            factory.executeAsync(SUB_SERVICE, this::count));
+
+        final CompletableFuture<Object> rejected = factory.executeAsync(SUB_SERVICE, this::count);
+        assertFailedWith(RejectedExecutionException.class, rejected);
+
+        gate.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Object> future : queued) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(3, runs.get());
+        assertEquals(4, logins.size());
+    }
+
+    @Test
+    public void collectsTheResultsOfAllTasksInOrder() throws Exception {
+        final List<RepositoryTask<String, RuntimeException>> tasks = Arrays.asList(resolver -> "a", resolver -> "b", resolver -> "c");
+
+        assertEquals(Arrays.asList("a", "b", "c"), factory.executeAll(SUB_SERVICE, tasks).get(5, TimeUnit.SECONDS));
+        assertEquals(3, logins.size());
+        for (ResourceResolver resolver : logins) {
+            verify(resolver).close();
+        }
+    }
+
+    @Test
+    public void cancelsTheRemainingTasksOnTheFirstFailure() throws Exception {
+        final List<RepositoryTask<Object, Exception>> tasks = Arrays.asList(resolver -> {
+            block(resolver);
+            throw new IllegalStateException("failed");
+        }, this::count, this::count);
+
+        final CompletableFuture<List<Object>> all = factory.executeAll(SUB_SERVICE, tasks);
+        gate.countDown();
+
+        assertFailedWith(IllegalStateException.class, all);
+        drain();
+        assertEquals(0, runs.get());
+        // the failed task's and drain's
+        assertEquals(2, logins.size());
+        for (ResourceResolver resolver : logins) {
+            verify(resolver).close();
+        }
+    }
+
+    private Object block(Object resolver) throws InterruptedException {
+        assertTrue(gate.await(5, TimeUnit.SECONDS));
+        return "blocked";
+    }
+
+    private Object count(Object resolver) {
+        return runs.incrementAndGet();
+    }
+
+    /**
+     * Wait for the tasks submitted so far to have run, or been skipped, as they run in order on a single thread.
+     */
+    private void drain() throws Exception {
+        factory.executeAsync(SUB_SERVICE, resolver -> null).get(5, TimeUnit.SECONDS);
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> expected, CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        }
+        assertFalse(future.isCancelled());
+    }
+}
@@ -0,0 +1,171 @@
+/*
+Copyright (c) 2015-2017 "Martin Petrovsky"
+
+This file is part of aem-utils (marto.io).
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package io.marto.aem.lib.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.marto.aem.lib.CacheStats;
+import io.marto.aem.lib.ModelPage;
+import io.marto.aem.lib.PageRequest;
+import io.marto.aem.lib.impl.TestRepository.TestModel;
+
+public class TypedResourceResolverImplTest {
+
+    private static final String TYPE = "test/components/page";
+
+    private TestRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        repo.add("/content", null);
+        repo.add("/content/a", TYPE);
+        repo.add("/content/b", "test/components/other");
+    }
+
+    @Test
+    public void memoizesModelsUntilRefresh() throws Exception {
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver, true, null, null);
+
+        final TestModel model = resolver.findModel("/content/a", TestModel.class, TYPE);
+        assertSame(model, resolver.findModel("/content/a", TestModel.class, TYPE));
+        assertEquals(1, repo.lookups.get());
+        assertEquals(1, repo.adaptations.get());
+
+        resolver.refresh();
+        assertNotSame(model, resolver.findModel("/content/a", TestModel.class, TYPE));
+        assertEquals(2, repo.adaptations.get());
+    }
+
+    @Test
+    public void memoizesMisses() {
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver, true, null, null);
+
+        assertNull(resolver.findModel("/content/missing", TestModel.class, TYPE));
+        assertNull(resolver.findModel("/content/missing", TestModel.class, TYPE));
+        assertNull(resolver.findModel("/content/b", TestModel.class, TYPE));
+        assertNull(resolver.findModel("/content/b", TestModel.class, TYPE));
+        assertEquals(2, repo.lookups.get());
+        assertEquals(0, repo.adaptations.get());
+
+        final CacheStats stats = resolver.getModelCacheStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void keysModelsByTypeAndClass() {
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver, true, null, null);
+
+        assertNull(resolver.findModel("/content/a", TestModel.class, "test/components/other"));
+        assertSame(resolver.findModel("/content/a", TestModel.class, TYPE), resolver.findModel("/content/a", TestModel.class, TYPE));
+        assertEquals(1, repo.adaptations.get());
+    }
+
+    @Test
+    public void clearsMemoOnCommitAndRevert() throws Exception {
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver, true, null, null);
+
+        resolver.findModel("/content/a", TestModel.class, TYPE);
+        resolver.commit();
+        resolver.findModel("/content/a", TestModel.class, TYPE);
+        resolver.revert();
+        resolver.findModel("/content/a", TestModel.class, TYPE);
+        assertEquals(3, repo.adaptations.get());
+    }
+
+    @Test
+    public void looksUpParentOnlyForModelsNotMemoized() {
+        repo.add("/content/c", TYPE);
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver, true, null, null);
+
+        final TestModel a = resolver.findModel("/content/a", TestModel.class, TYPE);
+        assertEquals(1, repo.lookups.get());
+        assertSame(a, resolver.findModelMap(Arrays.asList("/content/a"), TestModel.class, TYPE).get("/content/a"));
+        assertEquals(1, repo.lookups.get());
+
+        final Map<String, TestModel> found = resolver.findModelMap(Arrays.asList("/content/a", "/content/b", "/content/c", "/content/missing"), TestModel.class, TYPE);
+        assertEquals(Arrays.asList("/content/a", "/content/c"), new ArrayList<>(found.keySet()));
+        assertEquals(2, repo.lookups.get());
+    }
+
+    @Test
+    public void pagesThroughSortedChildrenByToken() {
+        repo.add("/list", null);
+        for (int i = 0; i < 7; i++) {
+            repo.add("/list/" + i, null);
+            repo.add("/list/" + i + "/jcr:content", TYPE, Collections.singletonMap("rank", (Object) (i % 3)));
+        }
+        repo.add("/list/other", null);
+        repo.add("/list/other/jcr:content", "test/components/other");
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver);
+
+        final List<String> paths = new ArrayList<>();
+        String token = PageRequest.of(0, 3).sortedBy("rank", true).toToken();
+        do {
+            final ModelPage<TestModel> page = resolver.pageModelChildren("/list", "jcr:content", TestModel.class, TYPE, PageRequest.fromToken(token));
+            assertEquals(7, page.getTotal());
+            page.getModels().forEach(model -> paths.add(ResourceUtil.getName(ResourceUtil.getParent(model.path))));
+            token = page.getContinuationToken();
+        } while (token != null);
+        // by descending rank, ties in repository order
+        assertEquals(Arrays.asList("2", "5", "1", "4", "0", "3", "6"), paths);
+    }
+
+    @Test
+    public void readsOwnCommittedWritesDespiteSharedMisses() throws Exception {
+        final SharedModelCacheImpl shared = new SharedModelCacheImpl();
+        shared.activate(Collections.singletonMap(SharedModelCacheImpl.PROP_MISSES_MAX_ENTRIES, (Object) 100));
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver, false, shared, "test");
+
+        assertNull(resolver.findModel("/content/c", TestModel.class, TYPE));
+        assertEquals(1, shared.getMissStats().getSize());
+
+        resolver.create(repo.resources.get("/content"), "c", Collections.singletonMap("sling:resourceType", (Object) TYPE));
+        resolver.commit();
+        // the change event that evicts the miss hasn't been delivered yet
+        assertEquals(1, shared.getMissStats().getSize());
+        assertEquals("/content/c", resolver.findModel("/content/c", TestModel.class, TYPE).path);
+
+        // other resolvers still see the remembered miss until the change is delivered
+        assertNull(new TypedResourceResolverImpl(repo.resolver, false, shared, "test").findModel("/content/c", TestModel.class, TYPE));
+    }
+
+    @Test
+    public void doesNotMemoizeByDefault() {
+        final TypedResourceResolverImpl resolver = new TypedResourceResolverImpl(repo.resolver);
+
+        assertNotSame(resolver.findModel("/content/a", TestModel.class, TYPE), resolver.findModel("/content/a", TestModel.class, TYPE));
+        assertEquals(CacheStats.DISABLED, resolver.getModelCacheStats());
+    }
+}